@@ -0,0 +1,91 @@
+package cn.xcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * @description 基准测试共用的数据和临时目录
+ */
+final class XCacheBenchmarks {
+    /**
+     * 读写测试中的key数量上限，数据总量超过 {@link #DATA_BUDGET} 时减少
+     */
+    static final int MAX_KEYS = 1024;
+    /**
+     * 读写测试预先写入的数据总量，单位字节
+     */
+    static final int DATA_BUDGET = 64 * 1024 * 1024;
+
+    private XCacheBenchmarks() {
+    }
+
+    /**
+     * 按数据大小决定key的数量，大数据时至少保留4个key
+     *
+     * @param valueSize
+     * @return
+     */
+    static int keyCount(int valueSize) {
+        return Math.max(4, Math.min(MAX_KEYS, DATA_BUDGET / valueSize));
+    }
+
+    /**
+     * 随机的二进制数据，固定种子，每次运行相同
+     *
+     * @param size
+     * @return
+     */
+    static byte[] bytes(int size) {
+        byte[] value = new byte[size];
+        new Random(size).nextBytes(value);
+        return value;
+    }
+
+    /**
+     * 类似接口返回的JSON文本，只包含ASCII字符，长度正好是size
+     *
+     * @param size
+     * @return
+     */
+    static String text(int size) {
+        StringBuilder builder = new StringBuilder(size + 64);
+        int i = 0;
+        while (builder.length() < size) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\"},");
+            i++;
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+
+    /**
+     * 在系统临时目录下创建空目录
+     *
+     * @param prefix
+     * @return
+     * @throws IOException
+     */
+    static File newDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("can't make dirs in " + directory.getAbsolutePath());
+        }
+        return directory;
+    }
+
+    /**
+     * 删除目录及其中的所有文件
+     *
+     * @param file
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,114 @@
+package cn.xcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程同时读写同一批key：只读、读多写少、读写各半、只写，结果按每个线程的吞吐量统计
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XCacheConcurrentBenchmark {
+    private static final int KEYS = 256;
+
+    @Param({"100", "4096", "65536"})
+    public int valueSize;
+
+    private File directory;
+    private XCacheCore cache;
+    private byte[] value;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = XCacheBenchmarks.newDirectory("xcache-concurrent");
+        cache = new XCacheCore.Builder(directory).size(Integer.MAX_VALUE).build();
+        value = XCacheBenchmarks.bytes(valueSize);
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+            cache.put(keys[i], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        cache.close();
+        XCacheBenchmarks.delete(directory);
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public byte[] readOnly(XCacheReadWriteBenchmark.Cursor cursor) {
+        return read(cursor);
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(3)
+    public byte[] readMostlyGet(XCacheReadWriteBenchmark.Cursor cursor) {
+        return read(cursor);
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void readMostlyPut(XCacheReadWriteBenchmark.Cursor cursor) {
+        write(cursor);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public byte[] readWriteGet(XCacheReadWriteBenchmark.Cursor cursor) {
+        return read(cursor);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public void readWritePut(XCacheReadWriteBenchmark.Cursor cursor) {
+        write(cursor);
+    }
+
+    /**
+     * 多个线程同时覆盖写入同一批key，测试写入之间的竞争
+     */
+    @Benchmark
+    @Group("writeOnly")
+    @GroupThreads(4)
+    public void writeOnly(XCacheReadWriteBenchmark.Cursor cursor) {
+        write(cursor);
+    }
+
+    private byte[] read(XCacheReadWriteBenchmark.Cursor cursor) {
+        return cache.getBinary(keys[cursor.next(KEYS)]);
+    }
+
+    private void write(XCacheReadWriteBenchmark.Cursor cursor) {
+        cache.put(keys[cursor.next(KEYS)], value);
+    }
+}
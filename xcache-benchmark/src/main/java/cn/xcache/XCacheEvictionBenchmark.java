@@ -0,0 +1,100 @@
+package cn.xcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存已满时持续写入新的key，每次写入都要淘汰，分别测试达到sizeLimit和countLimit的情况
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XCacheEvictionBenchmark {
+    private static final int VALUE_SIZE = 4096;
+    /**
+     * 缓存中保留的条数，size限制时换算为字节
+     */
+    private static final int CAPACITY = 1000;
+
+    /**
+     * size：按 sizeLimit 淘汰；count：按 countLimit 淘汰
+     */
+    @Param({"size", "count"})
+    public String limit;
+
+    @Param({"lru", "tinylfu", "greedydual"})
+    public String policy;
+
+    private File directory;
+    private XCacheCore cache;
+    private byte[] value;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = XCacheBenchmarks.newDirectory("xcache-eviction");
+        XCacheCore.Builder builder = new XCacheCore.Builder(directory).evictionPolicy(policy());
+        if ("size".equals(limit)) {
+            //每条数据在磁盘上还有头部和key，按数据大小计算时实际保留的条数略少于CAPACITY
+            builder.size(CAPACITY * VALUE_SIZE);
+        } else {
+            builder.size(Integer.MAX_VALUE).count(CAPACITY);
+        }
+        cache = builder.build();
+        value = XCacheBenchmarks.bytes(VALUE_SIZE);
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            putNew();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        cache.close();
+        XCacheBenchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public void putNew() {
+        cache.put("key-" + sequence.getAndIncrement(), value);
+    }
+
+    /**
+     * 多个线程同时写入，检查淘汰是否成为瓶颈
+     */
+    @Benchmark
+    @Threads(4)
+    public void putNewConcurrent() {
+        putNew();
+    }
+
+    private XCacheCore.EvictionPolicy policy() {
+        if ("tinylfu".equals(policy)) {
+            return new XCacheCore.TinyLfuPolicy();
+        }
+        if ("greedydual".equals(policy)) {
+            return new XCacheCore.GreedyDualPolicy();
+        }
+        return new XCacheCore.LruPolicy();
+    }
+}
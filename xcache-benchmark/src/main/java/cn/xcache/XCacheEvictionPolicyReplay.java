@@ -0,0 +1,118 @@
+package cn.xcache;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 淘汰策略的访问记录回放：按记录顺序读取，未命中时写入，超过大小限制时按策略淘汰，对比命中率和每次操作的耗时
+ * 默认回放生成的记录：少量反复读取的小数据，中间穿插大图片的一次性扫描；
+ * 指定文件路径时回放真实的访问记录，每行 "key 大小"，大小单位字节
+ * 运行：./gradlew :xcache-benchmark:replay [-Ptrace=文件路径]
+ */
+public class XCacheEvictionPolicyReplay {
+    private static final long SIZE_LIMIT = 2 * 1024 * 1024;
+
+    private static final class Access {
+        final String key;
+        final long size;
+
+        Access(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    private static final class Result {
+        long hits;
+        long hitBytes;
+        long bytes;
+        long nanos;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : null;
+        List<Access> trace = path != null ? readTrace(path) : scanTrace();
+        Result lru = replay(new XCacheCore.LruPolicy(), trace);
+        Result tinyLfu = replay(new XCacheCore.TinyLfuPolicy(), trace);
+        Result greedyDual = replay(new XCacheCore.GreedyDualPolicy(), trace);
+        print("lru", lru, trace.size());
+        print("w-tinylfu", tinyLfu, trace.size());
+        print("greedy-dual", greedyDual, trace.size());
+    }
+
+    private static Result replay(XCacheCore.EvictionPolicy policy, List<Access> trace) {
+        HashMap<String, Long> resident = new HashMap<String, Long>();
+        long size = 0;
+        Result result = new Result();
+        long start = System.nanoTime();
+        for (Access access : trace) {
+            result.bytes += access.size;
+            if (resident.containsKey(access.key)) {
+                result.hits++;
+                result.hitBytes += access.size;
+                policy.onAccess(access.key);
+                continue;
+            }
+            resident.put(access.key, access.size);
+            size += access.size;
+            policy.onPut(access.key, access.size);
+            while (size > SIZE_LIMIT) {
+                String victim = policy.evict();
+                if (victim == null) {
+                    break;
+                }
+                size -= resident.remove(victim);
+            }
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void print(String name, Result result, int operations) {
+        System.out.println(String.format("%-12s hit %.1f%%, byte hit %.1f%%, %d ns/op", name,
+                result.hits * 100.0 / operations, result.hitBytes * 100.0 / result.bytes,
+                result.nanos / operations));
+    }
+
+    /**
+     * 200条4KB的小数据按幂律分布反复读取，每读取2000次穿插一次300张100KB图片的扫描，图片只读一次
+     */
+    private static List<Access> scanTrace() {
+        Random random = new Random(42);
+        List<Access> trace = new ArrayList<Access>();
+        int image = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 2000; i++) {
+                int rank = (int) Math.floor(Math.pow(200, random.nextDouble()));
+                trace.add(new Access("item-" + rank, 4 * 1024));
+            }
+            for (int i = 0; i < 300; i++) {
+                trace.add(new Access("image-" + image++, 100 * 1024));
+            }
+        }
+        return trace;
+    }
+
+    private static List<Access> readTrace(String path) throws IOException {
+        List<Access> trace = new ArrayList<Access>();
+        BufferedReader in = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 2) {
+                    continue;
+                }
+                trace.add(new Access(fields[0], Long.parseLong(fields[1])));
+            }
+        } finally {
+            in.close();
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,123 @@
+package cn.xcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程的 put、getString、getBinary，按数据大小和命中率分组
+ * 预先写入 {@link XCacheBenchmarks#keyCount(int)} 个key，读取时按命中率混入不存在的key
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XCacheReadWriteBenchmark {
+    /**
+     * 读取的key序列长度
+     */
+    private static final int LOOKUPS = 4096;
+
+    @Param({"100", "4096", "65536", "1048576", "8388608"})
+    public int valueSize;
+
+    /**
+     * 读取命中的比例
+     */
+    @Param({"1.0", "0.5"})
+    public double hitRatio;
+
+    private File directory;
+    private XCacheCore cache;
+    private byte[] binary;
+    private String text;
+    private String[] writeKeys;
+    private String[] binaryLookups;
+    private String[] stringLookups;
+
+    /**
+     * 每个线程自己的读写位置
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        /**
+         * @param bound
+         * @return [0, bound) 中依次循环的位置
+         */
+        int next(int bound) {
+            int index = next < bound ? next : 0;
+            next = index + 1;
+            return index;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = XCacheBenchmarks.newDirectory("xcache-rw");
+        cache = new XCacheCore.Builder(directory).size(Integer.MAX_VALUE).build();
+        binary = XCacheBenchmarks.bytes(valueSize);
+        text = XCacheBenchmarks.text(valueSize);
+        int keys = XCacheBenchmarks.keyCount(valueSize);
+        writeKeys = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            writeKeys[i] = "put-" + i;
+            cache.put("binary-" + i, binary);
+            cache.put("string-" + i, text);
+        }
+        Random random = new Random(42);
+        binaryLookups = new String[LOOKUPS];
+        stringLookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            boolean hit = random.nextDouble() < hitRatio;
+            int key = random.nextInt(keys);
+            binaryLookups[i] = hit ? "binary-" + key : "missing-" + i;
+            stringLookups[i] = hit ? "string-" + key : "missing-" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        cache.close();
+        XCacheBenchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public void putBinary(Cursor cursor) {
+        cache.put(writeKeys[cursor.next(writeKeys.length)], binary);
+    }
+
+    @Benchmark
+    public void putString(Cursor cursor) {
+        cache.put(writeKeys[cursor.next(writeKeys.length)], text);
+    }
+
+    @Benchmark
+    public byte[] getBinary(Cursor cursor) {
+        return cache.getBinary(binaryLookups[cursor.next(LOOKUPS)]);
+    }
+
+    @Benchmark
+    public String getString(Cursor cursor) {
+        return cache.getString(stringLookups[cursor.next(LOOKUPS)]);
+    }
+}
@@ -0,0 +1,84 @@
+package cn.xcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷启动：打开已有的缓存目录并等待索引恢复完成，即第一次读取返回的时间
+ * journal：从日志恢复；scan：日志不存在，遍历目录读取每个文件的头部，再重写日志
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XCacheStartupBenchmark {
+    private static final int VALUE_SIZE = 100;
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    @Param({"journal", "scan"})
+    public String rebuild;
+
+    private File directory;
+    /**
+     * 本次打开的实例，每次测量后关闭，下次打开前日志已经写完并释放
+     */
+    private XCacheCore opened;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = XCacheBenchmarks.newDirectory("xcache-startup");
+        XCacheCore cache = new XCacheCore.Builder(directory).size(Integer.MAX_VALUE).build();
+        byte[] value = XCacheBenchmarks.bytes(VALUE_SIZE);
+        for (int i = 0; i < entries; i++) {
+            cache.put("key-" + i, value);
+        }
+        cache.close();
+    }
+
+    /**
+     * 每次打开前按需删除日志，上一次打开时会重写它
+     */
+    @Setup(Level.Invocation)
+    public void prepareDirectory() {
+        if ("scan".equals(rebuild)) {
+            new File(directory, XCacheJournal.JOURNAL_FILE).delete();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeOpened() {
+        opened.close();
+        opened = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        XCacheBenchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public String open() {
+        opened = new XCacheCore.Builder(directory).size(Integer.MAX_VALUE).build();
+        //读取会等待索引恢复完成
+        return opened.getString("missing");
+    }
+}
@@ -0,0 +1,129 @@
+package cn.xcache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * String读写前后对比：旧版 FileWriter + readLine 拼接 与 {@link XCacheStringCodec}
+ * 数据是多行的JSON文本，包含中文；旧版读取会丢掉换行符，这里只比较耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XCacheStringCodecBenchmark {
+
+    @Param({"4096", "262144"})
+    public int length;
+
+    private File directory;
+    private File oldFile;
+    private File newFile;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = XCacheBenchmarks.newDirectory("xcache-codec");
+        oldFile = new File(directory, "old");
+        newFile = new File(directory, "new");
+        value = jsonLines(length);
+        writeReadLine(oldFile, value);
+        writeCodec(newFile, value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        XCacheBenchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public void writeReadLine() throws IOException {
+        writeReadLine(oldFile, value);
+    }
+
+    @Benchmark
+    public void writeCodec() throws IOException {
+        writeCodec(newFile, value);
+    }
+
+    @Benchmark
+    public String readReadLine() throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(oldFile));
+        try {
+            String readString = "";
+            String currentLine;
+            while ((currentLine = in.readLine()) != null) {
+                readString += currentLine;
+            }
+            return readString;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public String readCodec() throws IOException {
+        RandomAccessFile raFile = new RandomAccessFile(newFile, "r");
+        try {
+            int size = (int) raFile.length();
+            byte[] data = XCacheStringCodec.scratch(size);
+            raFile.readFully(data, 0, size);
+            return XCacheStringCodec.decode(data, 0, size);
+        } finally {
+            raFile.close();
+        }
+    }
+
+    private static void writeReadLine(File file, String value) throws IOException {
+        BufferedWriter out = new BufferedWriter(new FileWriter(file), 1024);
+        try {
+            out.write(value);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeCodec(File file, String value) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(XCacheStringCodec.encode(value));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String jsonLines(int length) {
+        StringBuilder builder = new StringBuilder(length + 128);
+        int line = 0;
+        while (builder.length() < length) {
+            builder.append("{\"id\":").append(line).append(",\"name\":\"缓存条目").append(line)
+                    .append("\",\"tags\":[\"a\",\"b\",\"c\"],\"enabled\":true}\n");
+            line++;
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+}
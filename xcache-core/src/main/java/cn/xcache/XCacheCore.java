@@ -0,0 +1,4490 @@
+package cn.xcache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author xurunjie
+ * @description 缓存引擎：字节、字符串、对象的读写，淘汰、过期、统计都在这里，只依赖JDK，
+ * 可以直接在服务端JVM和单元测试中使用；Bitmap、Drawable和JSON的读写在Android模块的XCache中
+ * @date 2017/09/26
+ */
+public class XCacheCore implements Closeable {
+    /**
+     * 缓存时间
+     */
+    final int time;
+    /**
+     * 缓存内存
+     */
+    private final int size;
+    /**
+     * 缓存数量
+     */
+    private final int count;
+    /**
+     * 缓存管理类
+     */
+    private XCacheManager mCache;
+    /**
+     * 内存缓存，未开启时为null
+     */
+    private XCacheMemory mMemory;
+    /**
+     * 写入磁盘前的压缩，未开启时为null
+     */
+    private Codec mCodec;
+    /**
+     * 不小于该大小的数据才压缩
+     */
+    private int mCompressThreshold;
+    /**
+     * 热点文件的内存映射，未开启时为null
+     */
+    private XCacheMapped mMapped;
+    /**
+     * 解析结果的缓存，未开启时为null
+     */
+    private XCacheParsed mParsed;
+    /**
+     * 统计计数，未开启时为null
+     */
+    private XCacheStatsCounter mStats;
+    /**
+     * 事件监听，未设置时为null
+     */
+    private XCacheEvents mEvents;
+    /**
+     * 小数据的段文件存储，未开启时为null
+     */
+    private XCachePack mPack;
+    /**
+     * 不超过该大小的数据写入段文件
+     */
+    private int mPackThreshold;
+    /**
+     * 异步读写的线程池
+     */
+    private ThreadPoolExecutor mIoExecutor;
+    /**
+     * 等待写入磁盘的数据，同一个key连续写入时只保留最新的值
+     */
+    private final ConcurrentHashMap<String, PendingWrite> mPendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * 按文件路径排序，批量读写时同一个分片目录的文件相邻
+     */
+    private static final Comparator<XCacheEntry> FILE_NAME_ORDER = new Comparator<XCacheEntry>() {
+        @Override
+        public int compare(XCacheEntry o1, XCacheEntry o2) {
+            return o1.fileName.compareTo(o2.fileName);
+        }
+    };
+
+    /**
+     * 按过期时间排序，过期时间相同时按key排序，保证不同条目不会被视为相等
+     */
+    private static final Comparator<XCacheEntry> EXPIRE_ORDER = new Comparator<XCacheEntry>() {
+        @Override
+        public int compare(XCacheEntry o1, XCacheEntry o2) {
+            if (o1.expireAt != o2.expireAt) {
+                return o1.expireAt < o2.expireAt ? -1 : 1;
+            }
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    /**
+     * 后台清理每批最多删除的过期条目数，避免长时间占用锁和IO
+     */
+    private static final int SWEEP_BATCH = 100;
+    /**
+     * 读取只更新内存中的访问顺序，有新的访问时最多延迟这么久批量写入日志，单位毫秒
+     */
+    private static final long RECENCY_FLUSH_DELAY = 30 * 1000L;
+
+    /**
+     * 写入中的临时文件后缀
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * 小于一页的文件直接读取，映射不划算
+     */
+    private static final int MIN_MAP_SIZE = 4096;
+
+    /**
+     * 异步任务队列的容量，队列满时由调用线程直接执行
+     */
+    private static final int IO_QUEUE_CAPACITY = 256;
+    /**
+     * 按key分段的写锁数量，必须是2的幂
+     */
+    private static final int KEY_LOCK_STRIPES = 32;
+    /**
+     * 开启段文件时默认占size和count的比例
+     */
+    private static final float DEFAULT_PACK_SHARE = 0.25f;
+    /**
+     * 按key分段的写锁，同一个key的写入、提交和删除串行执行，读取不加锁
+     * 写入先写临时文件再rename，读取方看到的要么是旧文件要么是完整的新文件
+     */
+    private final ReentrantLock[] mKeyLocks = new ReentrantLock[KEY_LOCK_STRIPES];
+    /**
+     * 每个写锁分段的修改计数，写入、删除和淘汰持有写锁时通过 {@link #invalidate(String)} 递增
+     * 不加锁的读取先取计数，读完后持有写锁确认计数没变才回填内存缓存和解析结果，避免回填已被覆盖或删除的旧数据
+     */
+    private final AtomicLongArray mStamps = new AtomicLongArray(KEY_LOCK_STRIPES);
+
+    /**
+     * @param builder
+     * @param cacheDir 缓存目录，不存在时创建
+     */
+    XCacheCore(BaseBuilder<?> builder, File cacheDir) {
+        time = builder.time;
+        size = builder.size;
+        count = builder.count;
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new RuntimeException("can't make dirs in " + cacheDir.getAbsolutePath());
+        }
+        for (int i = 0; i < mKeyLocks.length; i++) {
+            mKeyLocks[i] = new ReentrantLock();
+        }
+        if (builder.recordStats) {
+            mStats = new XCacheStatsCounter();
+        }
+        if (builder.listener != null) {
+            mEvents = new XCacheEvents(builder.listener, builder.sampleRate);
+        }
+        long fileSize = size;
+        int fileCount = count;
+        long packSize = 0;
+        int packCount = 0;
+        if (builder.packThreshold > 0) {
+            //段文件和单个文件分摊同一份限制，不能各自使用完整的size和count
+            packSize = (long) (size * builder.packShare);
+            packCount = Math.max(1, (int) (count * builder.packShare));
+            fileSize -= packSize;
+            fileCount = Math.max(1, count - packCount);
+        }
+        mCache = new XCacheManager(cacheDir, fileSize, fileCount, builder.evictionPolicy);
+        if (builder.memorySize > 0) {
+            mMemory = new XCacheMemory(builder.memorySize);
+        }
+        mCodec = builder.codec;
+        mCompressThreshold = builder.compressThreshold;
+        if (builder.parsedCacheSize > 0) {
+            mParsed = new XCacheParsed(builder.parsedCacheSize);
+        }
+        if (builder.mapSize > 0) {
+            mMapped = new XCacheMapped(builder.mapSize);
+        }
+        if (builder.packThreshold > 0) {
+            mPack = new XCachePack(new File(cacheDir, XCachePack.PACK_DIR), packSize, packCount);
+            mPackThreshold = builder.packThreshold;
+        }
+        mIoExecutor = new ThreadPoolExecutor(builder.ioThreads, builder.ioThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(IO_QUEUE_CAPACITY), new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new IoThread(r, "xcache-io-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        mIoExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * builder模式，缓存目录由调用方指定
+     */
+    public static class Builder extends BaseBuilder<Builder> {
+        /**
+         * 缓存目录
+         */
+        private final File directory;
+
+        /**
+         * @param directory 缓存目录，不存在时创建，同一个目录同时只能有一个实例
+         */
+        public Builder(File directory){
+            if (directory == null) {
+                throw new IllegalArgumentException("directory == null");
+            }
+            this.directory = directory;
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
+
+        public XCacheCore build() {
+            return new XCacheCore(this, directory);
+        }
+    }
+
+    /**
+     * 各个Builder共用的设置，Android模块的Builder在此基础上增加Bitmap等设置
+     *
+     * @param <B> 具体的Builder，链式调用时返回它
+     */
+    public abstract static class BaseBuilder<B extends BaseBuilder<B>> {
+        /**
+         * 缓存默认不限时间 单位秒
+         */
+        public int time = -1;
+        /**
+         * 缓存默认内存10m
+         */
+        private int size = 1000 * 1000 * 10;
+        /**
+         * 缓存默认不限条数
+         */
+        private  int count = Integer.MAX_VALUE;
+        /**
+         * 内存缓存大小，默认不开启
+         */
+        private int memorySize = 0;
+        /**
+         * 压缩，默认不开启
+         */
+        private Codec codec;
+        /**
+         * 压缩的数据大小下限
+         */
+        private int compressThreshold;
+        /**
+         * 缓存的解析结果条数，默认不开启
+         */
+        private int parsedCacheSize = 0;
+        /**
+         * 内存映射区域的总大小，默认不开启
+         */
+        private int mapSize = 0;
+        /**
+         * 写入段文件的数据大小上限，默认不开启
+         */
+        private int packThreshold = 0;
+        /**
+         * 段文件占size和count的比例
+         */
+        private float packShare = DEFAULT_PACK_SHARE;
+        /**
+         * 异步读写的线程数
+         */
+        private int ioThreads = 2;
+        /**
+         * 淘汰策略，默认LRU
+         */
+        private EvictionPolicy evictionPolicy;
+        /**
+         * 是否记录统计数据，默认不开启
+         */
+        private boolean recordStats;
+        /**
+         * 事件监听，默认不设置
+         */
+        private Listener listener;
+        /**
+         * 事件的采样率
+         */
+        private float sampleRate = 1;
+
+        /**
+         * @return 链式调用返回的Builder
+         */
+        abstract B self();
+
+        public B time(int time){
+            this.time = time;
+            return self();
+        }
+        public B size(int size){
+            this.size = size;
+            return self();
+        }
+        public B count(int count){
+            this.count = count;
+            return self();
+        }
+
+        /**
+         * 开启内存缓存，读写都会先经过内存，写入同时落盘
+         * @param memorySize 内存缓存大小，单位字节，小于等于0时不开启
+         * @return
+         */
+        public B memorySize(int memorySize){
+            this.memorySize = memorySize;
+            return self();
+        }
+
+        /**
+         * 开启压缩，不小于threshold的数据写入磁盘前压缩，压缩后没有变小时按原样保存
+         * 读取时按头部标记自动解压，大小限制按压缩后的磁盘占用计算；内存缓存中保存的是解压后的数据
+         * 同一个缓存目录需要一直使用同一种codec，流式写入的数据不压缩
+         * @param codec     压缩算法，内置 {@link DeflateCodec}，null时不开启
+         * @param threshold 单位字节，建议不小于1024，太小的数据压缩收益不明显
+         * @return
+         */
+        public B compress(Codec codec, int threshold){
+            this.codec = codec;
+            this.compressThreshold = threshold;
+            return self();
+        }
+
+        /**
+         * 开启解析结果的缓存，Android模块的getJson解析出的对象会被保留，
+         * 同一个key用同一个mapper再次读取时直接返回，key被写入或删除时失效
+         * @param parsedCacheSize 最多保留的条数，小于等于0时不开启
+         * @return
+         */
+        public B parsedCacheSize(int parsedCacheSize){
+            this.parsedCacheSize = parsedCacheSize;
+            return self();
+        }
+
+        /**
+         * 开启内存映射读取，{@link XCacheCore#getByteBuffer(String)} 读取较大的文件时映射到内存并保留映射，
+         * 之后的读取直接返回映射区域的只读视图，不再打开文件和复制数据
+         * @param mapSize 保留的映射区域总大小，单位字节，小于等于0时不开启
+         * @return
+         */
+        public B mapSize(int mapSize){
+            this.mapSize = mapSize;
+            return self();
+        }
+
+        /**
+         * 开启小数据的段文件存储，不超过该大小的数据追加写入共享的段文件，不再每条数据一个文件
+         * 大于该大小的数据和流式写入的数据仍然每条一个文件；段文件使用size和count中默认1/4的份额
+         * @param packThreshold 单位字节，建议4096，小于等于0时不开启，不能超过64K
+         * @return
+         */
+        public B packThreshold(int packThreshold){
+            return packThreshold(packThreshold, DEFAULT_PACK_SHARE);
+        }
+
+        /**
+         * 开启小数据的段文件存储，段文件和单个文件分摊size和count
+         * 段文件的份额包括覆盖和删除留下的无效空间，有效数据最多使用其中的一半
+         * @param packThreshold 单位字节，建议4096，小于等于0时不开启，不能超过64K
+         * @param packShare     段文件占size和count的比例，(0, 1)
+         * @return
+         */
+        public B packThreshold(int packThreshold, float packShare){
+            if (packThreshold > XCachePack.MAX_VALUE_SIZE) {
+                throw new IllegalArgumentException("packThreshold > " + XCachePack.MAX_VALUE_SIZE);
+            }
+            if (!(packShare > 0 && packShare < 1)) {
+                throw new IllegalArgumentException("packShare must be in (0, 1)");
+            }
+            this.packThreshold = packThreshold;
+            this.packShare = packShare;
+            return self();
+        }
+
+        /**
+         * 异步读写的线程数，默认2
+         * @param ioThreads
+         * @return
+         */
+        public B ioThreads(int ioThreads){
+            if (ioThreads <= 0) {
+                throw new IllegalArgumentException("ioThreads <= 0");
+            }
+            this.ioThreads = ioThreads;
+            return self();
+        }
+
+        /**
+         * 淘汰策略，默认按LRU淘汰，例如 {@link TinyLfuPolicy}、{@link GreedyDualPolicy}
+         * @param evictionPolicy 每个缓存使用单独的实例
+         * @return
+         */
+        public B evictionPolicy(EvictionPolicy evictionPolicy){
+            this.evictionPolicy = evictionPolicy;
+            return self();
+        }
+
+        /**
+         * 记录命中率、淘汰、读写字节数和耗时分布，通过 {@link XCacheCore#stats()} 读取；不开启时没有任何开销
+         * @return
+         */
+        public B recordStats(){
+            this.recordStats = true;
+            return self();
+        }
+
+        /**
+         * 监听每一次操作，等同于采样率为1的 {@link #listener(Listener, float)}
+         * @param listener
+         * @return
+         */
+        public B listener(Listener listener){
+            return listener(listener, 1);
+        }
+
+        /**
+         * 按采样率监听单条操作，用于定位慢的读写
+         * @param listener   在执行操作的线程上回调，需要线程安全且尽快返回
+         * @param sampleRate 采样率，(0, 1]，例如0.01表示每100次操作上报一次
+         * @return
+         */
+        public B listener(Listener listener, float sampleRate){
+            if (!(sampleRate > 0 && sampleRate <= 1)) {
+                throw new IllegalArgumentException("sampleRate must be in (0, 1]");
+            }
+            this.listener = listener;
+            this.sampleRate = sampleRate;
+            return self();
+        }
+    }
+    /**
+     * 压缩算法，需要线程安全
+     */
+    public interface Codec {
+        /**
+         * @param data
+         * @return 压缩后的数据
+         * @throws IOException
+         */
+        byte[] compress(byte[] data) throws IOException;
+
+        /**
+         * @param data   压缩后的数据
+         * @param offset
+         * @param length
+         * @return 原始数据
+         * @throws IOException 数据损坏时抛出
+         */
+        byte[] decompress(byte[] data, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 基于 {@link Deflater} 的压缩，JSON等文本数据一般能压缩到原来的十分之一到五分之一
+     */
+    public static class DeflateCodec implements Codec {
+        private final int level;
+
+        /**
+         * 默认使用 {@link Deflater#BEST_SPEED}，缓存更在意写入速度
+         */
+        public DeflateCodec() {
+            this(Deflater.BEST_SPEED);
+        }
+
+        /**
+         * @param level 压缩级别，0-9
+         */
+        public DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public byte[] compress(byte[] data) throws IOException {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset, length);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+                byte[] buffer = new byte[8192];
+                while (!inflater.finished()) {
+                    int inflated = inflater.inflate(buffer);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("truncated deflate data");
+                    }
+                    out.write(buffer, 0, inflated);
+                }
+                return out.toByteArray();
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 淘汰策略，决定超过size或count限制时先删除哪条数据
+     * 所有方法都在索引的锁内调用，实现不需要线程安全；每个缓存使用单独的实例，不能共用
+     * 只作用于单独保存为文件的数据，段文件中的小数据仍按LRU淘汰；已过期的数据总是先于策略选出的数据删除
+     */
+    public interface EvictionPolicy {
+        /**
+         * 新增或覆盖写入，启动恢复索引时也会按访问顺序对已有的数据依次调用
+         *
+         * @param key
+         * @param size 磁盘占用，单位字节
+         */
+        void onPut(String key, long size);
+
+        /**
+         * 读取命中
+         *
+         * @param key
+         */
+        void onAccess(String key);
+
+        /**
+         * 被删除或过期清理，不包括 {@link #evict()} 选出的数据
+         *
+         * @param key
+         */
+        void onRemove(String key);
+
+        /**
+         * 选出下一条要淘汰的数据，并从策略中移除
+         *
+         * @return 没有数据时返回null
+         */
+        String evict();
+
+        /**
+         * 把 {@link #evict()} 选出、但正在写入而没有被淘汰的数据放回原来的位置，不算作一次写入或命中
+         * 只能在evict之后、其他调用之前调用，选出多条时按选出的相反顺序放回
+         *
+         * @param key evict返回的key
+         */
+        void restore(String key);
+
+        void clear();
+    }
+
+    /**
+     * 最久未使用的先淘汰，和不设置淘汰策略时的行为一致，主要用于和其他策略对比
+     */
+    public static class LruPolicy implements EvictionPolicy {
+        private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+        @Override
+        public void onPut(String key, long size) {
+            order.put(key, Boolean.TRUE);
+        }
+
+        @Override
+        public void onAccess(String key) {
+            order.get(key);
+        }
+
+        @Override
+        public void onRemove(String key) {
+            order.remove(key);
+        }
+
+        @Override
+        public String evict() {
+            Iterator<String> iterator = order.keySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            String key = iterator.next();
+            iterator.remove();
+            return key;
+        }
+
+        @Override
+        public void restore(String key) {
+            putFirst(order, key, Boolean.TRUE);
+        }
+
+        @Override
+        public void clear() {
+            order.clear();
+        }
+    }
+
+    /**
+     * 插入到表头，需要复制整个表，只用于很少发生的 {@link EvictionPolicy#restore(String)}
+     *
+     * @param map
+     * @param key
+     * @param value
+     */
+    private static <V> void putFirst(LinkedHashMap<String, V> map, String key, V value) {
+        LinkedHashMap<String, V> rest = new LinkedHashMap<String, V>(map);
+        map.clear();
+        map.put(key, value);
+        map.putAll(rest);
+    }
+
+    /**
+     * W-TinyLFU：新数据先进入占总大小1%的窗口LRU，被挤出窗口后进入主区域的试用段；
+     * 需要淘汰时，最近挤出窗口的数据和试用段表头比较访问频率，频率低的一方被淘汰，
+     * 一次性扫描的大量数据进不了主区域，不会冲掉反复使用的数据
+     * 主区域是分段LRU，再次命中的数据从试用段升级到占主区域80%的保护段
+     */
+    public static class TinyLfuPolicy implements EvictionPolicy {
+        private static final int WINDOW_PERCENT = 1;
+        private static final int PROTECTED_PERCENT = 80;
+
+        private final XCacheFrequencySketch sketch = new XCacheFrequencySketch();
+        /**
+         * 三个区域都按插入顺序排列，移动到表尾时先删除再插入，值是数据大小
+         */
+        private final LinkedHashMap<String, Long> window = new LinkedHashMap<String, Long>();
+        private final LinkedHashMap<String, Long> probation = new LinkedHashMap<String, Long>();
+        private final LinkedHashMap<String, Long> protect = new LinkedHashMap<String, Long>();
+        private long windowSize;
+        private long probationSize;
+        private long protectSize;
+        /**
+         * 最近挤出窗口、还没有经过比较的数据
+         */
+        private String candidate;
+        /**
+         * 上一批evict选出的数据原来所在的区域和大小，供restore放回，其他调用时清空
+         */
+        private final HashMap<String, Evicted> evicted = new HashMap<String, Evicted>();
+
+        private static final class Evicted {
+            final LinkedHashMap<String, Long> region;
+            final long size;
+            /**
+             * 选出时的挑战者，放回时恢复，下次淘汰时重新比较
+             */
+            final String challenger;
+
+            Evicted(LinkedHashMap<String, Long> region, long size, String challenger) {
+                this.region = region;
+                this.size = size;
+                this.challenger = challenger;
+            }
+        }
+
+        @Override
+        public void onPut(String key, long size) {
+            evicted.clear();
+            sketch.ensureCapacity(window.size() + probation.size() + protect.size() + 1);
+            //覆盖写入时在原来的区域中修正大小，并视为一次命中
+            Long previous = window.get(key);
+            if (previous != null) {
+                window.put(key, size);
+                windowSize += size - previous;
+            } else if ((previous = probation.get(key)) != null) {
+                probation.put(key, size);
+                probationSize += size - previous;
+            } else if ((previous = protect.get(key)) != null) {
+                protect.put(key, size);
+                protectSize += size - previous;
+            } else {
+                sketch.increment(key);
+                window.put(key, size);
+                windowSize += size;
+                drainWindow();
+                return;
+            }
+            onAccess(key);
+            drainWindow();
+        }
+
+        @Override
+        public void onAccess(String key) {
+            evicted.clear();
+            sketch.increment(key);
+            Long size = window.remove(key);
+            if (size != null) {
+                window.put(key, size);
+                return;
+            }
+            size = probation.remove(key);
+            if (size != null) {
+                probationSize -= size;
+                protect.put(key, size);
+                protectSize += size;
+                demoteProtected();
+                return;
+            }
+            size = protect.remove(key);
+            if (size != null) {
+                protect.put(key, size);
+            }
+        }
+
+        @Override
+        public void onRemove(String key) {
+            evicted.clear();
+            remove(key);
+        }
+
+        @Override
+        public String evict() {
+            String challenger = candidate;
+            candidate = null;
+            if (challenger != null && probation.containsKey(challenger)) {
+                String victim = null;
+                for (String key : probation.keySet()) {
+                    if (!key.equals(challenger)) {
+                        victim = key;
+                        break;
+                    }
+                }
+                if (victim == null && !protect.isEmpty()) {
+                    victim = protect.keySet().iterator().next();
+                }
+                //频率相同时淘汰新数据，保护已经在主区域中的数据
+                String loser = victim == null || sketch.frequency(challenger) <= sketch.frequency(victim)
+                        ? challenger : victim;
+                LinkedHashMap<String, Long> region = probation.containsKey(loser) ? probation : protect;
+                evicted.put(loser, new Evicted(region, remove(loser), challenger));
+                return loser;
+            }
+            LinkedHashMap<String, Long> region = !probation.isEmpty() ? probation
+                    : !protect.isEmpty() ? protect : window;
+            if (region.isEmpty()) {
+                return null;
+            }
+            String key = region.keySet().iterator().next();
+            evicted.put(key, new Evicted(region, remove(key), challenger));
+            return key;
+        }
+
+        @Override
+        public void restore(String key) {
+            Evicted entry = evicted.remove(key);
+            if (entry == null) {
+                return;
+            }
+            //挑战者放回试用段表尾，其他放回原区域表头，频率和区域都不变；挑战者下次淘汰时重新比较
+            if (key.equals(entry.challenger)) {
+                entry.region.put(key, entry.size);
+            } else {
+                putFirst(entry.region, key, entry.size);
+            }
+            if (entry.challenger != null && (key.equals(entry.challenger) || probation.containsKey(entry.challenger))) {
+                candidate = entry.challenger;
+            }
+            if (entry.region == window) {
+                windowSize += entry.size;
+            } else if (entry.region == probation) {
+                probationSize += entry.size;
+            } else {
+                protectSize += entry.size;
+            }
+        }
+
+        @Override
+        public void clear() {
+            window.clear();
+            probation.clear();
+            protect.clear();
+            windowSize = 0;
+            probationSize = 0;
+            protectSize = 0;
+            candidate = null;
+            evicted.clear();
+            sketch.clear();
+        }
+
+        /**
+         * 窗口超过总大小的1%时，把最久未使用的数据移到试用段表尾，最后移出的一条作为下次淘汰时的挑战者
+         */
+        private void drainWindow() {
+            long total = windowSize + probationSize + protectSize;
+            while (!window.isEmpty() && windowSize * 100 > total * WINDOW_PERCENT) {
+                Map.Entry<String, Long> eldest = window.entrySet().iterator().next();
+                String key = eldest.getKey();
+                long size = eldest.getValue();
+                window.remove(key);
+                windowSize -= size;
+                probation.put(key, size);
+                probationSize += size;
+                candidate = key;
+            }
+        }
+
+        /**
+         * 保护段超过主区域的80%时，把最久未使用的数据降回试用段
+         */
+        private void demoteProtected() {
+            while (protect.size() > 1 && protectSize * 100 > (probationSize + protectSize) * PROTECTED_PERCENT) {
+                Map.Entry<String, Long> eldest = protect.entrySet().iterator().next();
+                protect.remove(eldest.getKey());
+                protectSize -= eldest.getValue();
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += eldest.getValue();
+            }
+        }
+
+        private Long remove(String key) {
+            Long size = window.remove(key);
+            if (size != null) {
+                windowSize -= size;
+                return size;
+            }
+            size = probation.remove(key);
+            if (size != null) {
+                probationSize -= size;
+                return size;
+            }
+            size = protect.remove(key);
+            if (size != null) {
+                protectSize -= size;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * GreedyDual-Size-Frequency：优先级 = 基准值 + 访问次数 / 大小，优先级最低的先淘汰，
+     * 淘汰后基准值提高到被淘汰数据的优先级，长期不访问的数据优先级相对越来越低
+     * 同样的访问次数下大数据先淘汰，适合大图片和小数据混合存放、更在意命中次数而不是命中字节数的场景
+     */
+    public static class GreedyDualPolicy implements EvictionPolicy {
+
+        private static final class Node {
+            final String key;
+            long size;
+            int frequency;
+            double priority;
+            long sequence;
+
+            Node(String key) {
+                this.key = key;
+            }
+        }
+
+        private final HashMap<String, Node> nodes = new HashMap<String, Node>();
+        /**
+         * 按优先级排序，相同时先更新的先淘汰
+         */
+        private final TreeSet<Node> queue = new TreeSet<Node>(new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                if (o1.priority != o2.priority) {
+                    return o1.priority < o2.priority ? -1 : 1;
+                }
+                return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+            }
+        });
+        private double inflation;
+        private long sequence;
+        /**
+         * 上一批evict选出的数据和evict之前的基准值，供restore放回，其他调用时清空
+         */
+        private final HashMap<String, Node> evicted = new HashMap<String, Node>();
+        private double inflationBeforeEvict = -1;
+
+        @Override
+        public void onPut(String key, long size) {
+            clearEvicted();
+            Node node = nodes.get(key);
+            if (node == null) {
+                node = new Node(key);
+                nodes.put(key, node);
+            } else {
+                queue.remove(node);
+            }
+            node.size = size;
+            update(node);
+        }
+
+        @Override
+        public void onAccess(String key) {
+            clearEvicted();
+            Node node = nodes.get(key);
+            if (node != null) {
+                queue.remove(node);
+                update(node);
+            }
+        }
+
+        @Override
+        public void onRemove(String key) {
+            clearEvicted();
+            Node node = nodes.remove(key);
+            if (node != null) {
+                queue.remove(node);
+            }
+        }
+
+        @Override
+        public String evict() {
+            Node node = queue.pollFirst();
+            if (node == null) {
+                return null;
+            }
+            nodes.remove(node.key);
+            if (inflationBeforeEvict < 0) {
+                inflationBeforeEvict = inflation;
+            }
+            inflation = node.priority;
+            evicted.put(node.key, node);
+            return node.key;
+        }
+
+        @Override
+        public void restore(String key) {
+            Node node = evicted.remove(key);
+            if (node == null) {
+                return;
+            }
+            //优先级和顺序号不变，放回原来的位置
+            nodes.put(key, node);
+            queue.add(node);
+            //这一批选出的都放回时没有发生淘汰，基准值恢复
+            if (evicted.isEmpty()) {
+                inflation = inflationBeforeEvict;
+                inflationBeforeEvict = -1;
+            }
+        }
+
+        @Override
+        public void clear() {
+            nodes.clear();
+            queue.clear();
+            inflation = 0;
+            clearEvicted();
+        }
+
+        private void clearEvicted() {
+            if (!evicted.isEmpty() || inflationBeforeEvict >= 0) {
+                evicted.clear();
+                inflationBeforeEvict = -1;
+            }
+        }
+
+        private void update(Node node) {
+            node.frequency++;
+            //按KB计算，避免优先级的增量过小被基准值的精度吞掉
+            node.priority = inflation + node.frequency * 1024.0 / Math.max(node.size, 1);
+            node.sequence = sequence++;
+            queue.add(node);
+        }
+    }
+
+    /**
+     * 统计数据的快照，不可修改，通过 {@link XCacheCore#stats()} 获取，需要开启 {@link Builder#recordStats()}
+     * 命中、未命中和耗时统计单条读取、批量读取（只计命中和未命中）以及流式读取的打开；
+     * 读写字节数是磁盘上数据部分的字节数，压缩的数据按压缩后计算，流式读取按打开时的数据长度计算
+     */
+    public static final class Stats {
+        /**
+         * 统计耗时的操作类型
+         */
+        public enum Operation {
+            GET, PUT, REMOVE
+        }
+
+        static final Stats EMPTY = new Stats(new long[XCacheStatsCounter.COUNTERS],
+                new long[Operation.values().length], new long[Operation.values().length][XCacheStatsCounter.BUCKETS]);
+
+        private final long[] counters;
+        private final long[] totalNanos;
+        private final long[][] histograms;
+
+        Stats(long[] counters, long[] totalNanos, long[][] histograms) {
+            this.counters = counters;
+            this.totalNanos = totalNanos;
+            this.histograms = histograms;
+        }
+
+        public long hitCount() {
+            return counters[XCacheStatsCounter.HITS];
+        }
+
+        public long missCount() {
+            return counters[XCacheStatsCounter.MISSES];
+        }
+
+        public long requestCount() {
+            return hitCount() + missCount();
+        }
+
+        /**
+         * @return 没有读取时返回1
+         */
+        public double hitRate() {
+            long requests = requestCount();
+            return requests == 0 ? 1.0 : (double) hitCount() / requests;
+        }
+
+        /**
+         * @return 读取时发现过期、后台清理和淘汰时删除的过期数据条数
+         */
+        public long expirationCount() {
+            return counters[XCacheStatsCounter.EXPIRATIONS];
+        }
+
+        /**
+         * @return 超过size或count限制时淘汰的未过期数据条数，不包括段文件中的小数据
+         */
+        public long evictionCount() {
+            return counters[XCacheStatsCounter.EVICTIONS];
+        }
+
+        public long bytesRead() {
+            return counters[XCacheStatsCounter.BYTES_READ];
+        }
+
+        public long bytesWritten() {
+            return counters[XCacheStatsCounter.BYTES_WRITTEN];
+        }
+
+        /**
+         * @param operation
+         * @return 记录了耗时的操作次数
+         */
+        public long operationCount(Operation operation) {
+            long count = 0;
+            for (long bucket : histograms[operation.ordinal()]) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * @param operation
+         * @return 平均耗时，单位纳秒
+         */
+        public long averageNanos(Operation operation) {
+            long count = operationCount(operation);
+            return count == 0 ? 0 : totalNanos[operation.ordinal()] / count;
+        }
+
+        /**
+         * 耗时分布，第i个元素是耗时不超过 {@link #bucketUpperBoundNanos(int)} 且超过上一个桶上限的次数
+         *
+         * @param operation
+         * @return 副本
+         */
+        public long[] latencyHistogram(Operation operation) {
+            return histograms[operation.ordinal()].clone();
+        }
+
+        /**
+         * @param bucket
+         * @return 第bucket个桶的上限，单位纳秒，最后一个桶返回Long.MAX_VALUE
+         */
+        public static long bucketUpperBoundNanos(int bucket) {
+            return XCacheStatsCounter.bucketUpperBound(bucket);
+        }
+
+        /**
+         * 按桶估算的耗时百分位，返回所在桶的上限
+         *
+         * @param operation
+         * @param percentile 0到100
+         * @return 单位纳秒，没有记录时返回0
+         */
+        public long percentileNanos(Operation operation, double percentile) {
+            long count = operationCount(operation);
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            long[] histogram = histograms[operation.ordinal()];
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return bucketUpperBoundNanos(i);
+                }
+            }
+            return bucketUpperBoundNanos(histogram.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hitCount() + ", misses=" + missCount()
+                    + ", expirations=" + expirationCount() + ", evictions=" + evictionCount()
+                    + ", bytesRead=" + bytesRead() + ", bytesWritten=" + bytesWritten()
+                    + ", getAvgNanos=" + averageNanos(Operation.GET)
+                    + ", putAvgNanos=" + averageNanos(Operation.PUT) + "}";
+        }
+    }
+
+    /**
+     * 单条操作的事件
+     */
+    public enum Event {
+        /**
+         * 写入，size是写入前的数据大小
+         */
+        PUT,
+        /**
+         * 读取命中，size是数据大小，流式读取时为-1
+         */
+        HIT,
+        /**
+         * 读取未命中，size为0
+         */
+        MISS,
+        /**
+         * 读取时发现或后台清理时删除了过期数据，size是磁盘占用
+         */
+        EXPIRE,
+        /**
+         * 超过size或count限制时淘汰，size是磁盘占用，耗时是删除文件的时间
+         */
+        EVICT,
+        /**
+         * 调用方删除，size为-1
+         */
+        REMOVE
+    }
+
+    /**
+     * 操作事件的监听，通过 {@link Builder#listener(Listener, float)} 设置
+     * 只上报单条读写、删除和淘汰，批量读写和流式写入不上报；在执行操作的线程上回调，包括后台线程
+     */
+    public interface Listener {
+        /**
+         * @param event
+         * @param key
+         * @param size          数据大小，单位字节，未知时为-1
+         * @param durationNanos 耗时，单位纳秒，EXPIRE为0
+         */
+        void onEvent(Event event, String key, long size, long durationNanos);
+    }
+
+    /**
+     * 移除某个key
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        cancelPendingWrite(key);
+        removeNow(key);
+        recordLatency(Stats.Operation.REMOVE, key, -1, start, sampled);
+    }
+
+    private void removeNow(String key) {
+        ReentrantLock lock = keyLock(key);
+        lock.lock();
+        try {
+            if (mMemory != null) {
+                mMemory.remove(key);
+            }
+            if (mPack != null) {
+                mPack.remove(key);
+            }
+            mCache.remove(key);
+            invalidate(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除由数据派生的内存映射和解析结果，在新数据对读取方可见之后调用
+     *
+     * @param key
+     */
+    private void invalidate(String key) {
+        mStamps.incrementAndGet(keyStripe(key));
+        if (mMapped != null) {
+            mMapped.remove(key);
+        }
+        if (mParsed != null) {
+            mParsed.remove(key);
+        }
+    }
+
+    /**
+     * 获取key所在分段的写锁
+     *
+     * @param key
+     * @return
+     */
+    private ReentrantLock keyLock(String key) {
+        return mKeyLocks[keyStripe(key)];
+    }
+
+    /**
+     * 读取前取key所在分段的修改计数，交给 {@link #fillMemory(String, XCacheMemory.Value, long)}
+     *
+     * @param key
+     * @return
+     */
+    private long stamp(String key) {
+        return mStamps.get(keyStripe(key));
+    }
+
+    /**
+     * 不加锁读取后回填内存缓存，读取开始后同一分段有过写入或删除时不回填
+     * 分段正在写入时也不回填，写入方会自己更新内存缓存
+     *
+     * @param key
+     * @param value
+     * @param stamp 读取索引前的 {@link #stamp(String)}
+     */
+    private void fillMemory(String key, XCacheMemory.Value value, long stamp) {
+        ReentrantLock lock = keyLock(key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (stamp(key) == stamp) {
+                mMemory.put(key, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int keyStripe(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return hash & (KEY_LOCK_STRIPES - 1);
+    }
+
+    /**
+     * 按分段顺序获取多个key的写锁，多个批量写入同时进行时不会互相等待对方持有的锁
+     *
+     * @param keys
+     * @return 已获取的锁，交给 {@link #unlockAll(List)} 释放
+     */
+    private List<ReentrantLock> lockAll(Collection<String> keys) {
+        boolean[] stripes = new boolean[KEY_LOCK_STRIPES];
+        for (String key : keys) {
+            stripes[keyStripe(key)] = true;
+        }
+        List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+            if (stripes[i]) {
+                mKeyLocks[i].lock();
+                locks.add(mKeyLocks[i]);
+            }
+        }
+        return locks;
+    }
+
+    private void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    /**
+     * 在目标文件所在的分片目录中创建一个临时文件，同目录下rename才是原子的
+     * 文件名带随机数，同一个key的多个写入流不会互相覆盖，以 {@link #TEMP_SUFFIX} 结尾，启动时会被清理
+     *
+     * @param file 目标文件
+     * @return
+     * @throws IOException
+     */
+    private static File tempFileFor(File file) throws IOException {
+        return File.createTempFile(file.getName() + ".", TEMP_SUFFIX, file.getParentFile());
+    }
+
+    /**
+     * 清除所有数据
+     */
+    public void clear() {
+        for (String key : mPendingWrites.keySet()) {
+            cancelPendingWrite(key);
+        }
+        //持有所有分段的写锁，清除过程中不会有读取回填旧数据
+        for (ReentrantLock lock : mKeyLocks) {
+            lock.lock();
+        }
+        try {
+            if (mMemory != null) {
+                mMemory.clear();
+            }
+            if (mMapped != null) {
+                mMapped.clear();
+            }
+            if (mParsed != null) {
+                mParsed.clear();
+            }
+            if (mPack != null) {
+                mPack.clear();
+            }
+            mCache.clear();
+            for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+                mStamps.incrementAndGet(i);
+            }
+        } finally {
+            for (int i = mKeyLocks.length - 1; i >= 0; i--) {
+                mKeyLocks[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * 立即把内存中的访问顺序写入日志，平时在后台定期批量写入，
+     * 需要在进程可能被结束前保证下次启动时的LRU顺序时调用
+     */
+    public void flush() {
+        mCache.flushRecency();
+    }
+
+    /**
+     * 关闭缓存：等待已提交的异步写入完成，写入访问顺序，关闭日志和段文件并停止后台线程，
+     * 丢弃内存缓存、内存映射和解析结果，映射区域不再被缓存引用，Windows和Android上不会继续占用文件
+     * 关闭后不能再读写；同一个目录再次打开前需要先关闭之前的实例，否则两个实例会同时追加同一个日志
+     */
+    @Override
+    public void close() {
+        XCacheUtils.shutdown(mIoExecutor);
+        mCache.close();
+        if (mPack != null) {
+            mPack.close();
+        }
+        if (mMemory != null) {
+            mMemory.clear();
+        }
+        if (mMapped != null) {
+            mMapped.clear();
+        }
+        if (mParsed != null) {
+            mParsed.clear();
+        }
+    }
+
+    /**
+     * 统计数据的快照
+     *
+     * @return 未开启 {@link Builder#recordStats()} 时所有数据都是0
+     */
+    public Stats stats() {
+        return mStats != null ? mStats.snapshot() : Stats.EMPTY;
+    }
+
+    /**
+     * @return 是否上报本次操作，未设置监听时返回false
+     */
+    private boolean sampleEvent() {
+        return mEvents != null && mEvents.sample();
+    }
+
+    /**
+     * @param sampled 本次操作是否上报
+     * @return 开启统计或需要上报时的当前时间，单位纳秒，否则返回0，不读取时钟
+     */
+    private long startTimer(boolean sampled) {
+        return mStats != null || sampled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记录一次读取
+     *
+     * @param size 命中时的数据大小，未知时为-1
+     */
+    private void recordRead(String key, long start, boolean sampled, boolean hit, long size) {
+        if (mStats == null && !sampled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if (mStats != null) {
+            mStats.add(hit ? XCacheStatsCounter.HITS : XCacheStatsCounter.MISSES, 1);
+            mStats.recordLatency(Stats.Operation.GET, nanos);
+        }
+        if (sampled) {
+            mEvents.dispatch(hit ? Event.HIT : Event.MISS, key, hit ? size : 0, nanos);
+        }
+    }
+
+    /**
+     * 记录一次写入或删除
+     */
+    private void recordLatency(Stats.Operation operation, String key, long size, long start, boolean sampled) {
+        if (mStats == null && !sampled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if (mStats != null) {
+            mStats.recordLatency(operation, nanos);
+        }
+        if (sampled) {
+            mEvents.dispatch(operation == Stats.Operation.PUT ? Event.PUT : Event.REMOVE, key, size, nanos);
+        }
+    }
+
+    /**
+     * 记录过期或淘汰
+     *
+     * @param event {@link Event#EXPIRE} 或 {@link Event#EVICT}
+     * @param size  磁盘占用
+     * @param nanos 耗时
+     */
+    private void recordRemoval(Event event, String key, long size, long nanos) {
+        recordCount(event == Event.EXPIRE ? XCacheStatsCounter.EXPIRATIONS : XCacheStatsCounter.EVICTIONS, 1);
+        if (sampleEvent()) {
+            mEvents.dispatch(event, key, size, nanos);
+        }
+    }
+
+    /**
+     * 开始一个耗时区段，默认不做任何事，Android模块用它添加Trace区段
+     *
+     * @param name
+     */
+    protected void beginSection(String name) {
+    }
+
+    /**
+     * 结束 {@link #beginSection(String)} 开始的区段
+     */
+    protected void endSection() {
+    }
+
+    private void recordCount(int counter, long delta) {
+        if (mStats != null) {
+            mStats.add(counter, delta);
+        }
+    }
+
+    /**
+     * 释放内存缓存、内存映射和解析结果的缓存，内存紧张时调用
+     *
+     * @param all true：全部释放；false：内存缓存释放一半，映射和解析结果保留
+     */
+    public void releaseMemory(boolean all) {
+        if (all) {
+            if (mMemory != null) {
+                mMemory.clear();
+            }
+            if (mMapped != null) {
+                mMapped.clear();
+            }
+            if (mParsed != null) {
+                mParsed.clear();
+            }
+        } else if (mMemory != null) {
+            mMemory.trimToSize(mMemory.maxSize() / 2);
+        }
+    }
+    // ============ String数据 读写 ==============
+    /**
+     * 保存 String数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的String数据
+     */
+    public void put(String key, String value) {
+        put(key, value, time);
+    }
+    /**
+     * 保存 String数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的String数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, String value, int saveTime) {
+        writeEntry(key, XCacheHeader.FLAG_UTF8_STRING, XCacheStringCodec.encode(value), XCacheUtils.expireAt(saveTime), false);
+    }
+
+    /**
+     * 读取 String数据
+     *
+     * @param key key值
+     * @return String 数据
+     */
+    public String getString(String key) {
+        return readEntry(key, STRING_DECODER, true);
+    }
+    // ============== byte 数据 读写 =============
+    /**
+     * 保存 byte数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的数据
+     */
+    public void put(String key, byte[] value) {
+        put(key, value, time);
+    }
+    /**
+     * 保存 byte数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, byte[] value, int saveTime) {
+        writeEntry(key, 0, value, XCacheUtils.expireAt(saveTime), true);
+    }
+
+    /**
+     * 获取 byte 数据
+     *
+     * @param key
+     * @return byte 数据
+     */
+    public byte[] getBinary(String key) {
+        return readEntry(key, BYTES_DECODER, false);
+    }
+
+    /**
+     * 读取 byte数据的只读视图
+     * 开启 {@link Builder#mapSize(int)} 时，较大的文件映射到内存并保留映射，之后的读取不再打开文件和复制数据；
+     * 映射被淘汰或key被覆盖、删除后，已经返回的视图仍然可以读取旧数据
+     *
+     * @param key
+     * @return 只读的ByteBuffer，position为0，不存在或过期时返回null
+     */
+    public ByteBuffer getByteBuffer(String key) {
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        ByteBuffer buffer = readByteBuffer(key);
+        recordRead(key, start, sampled, buffer != null, buffer != null ? buffer.remaining() : 0);
+        return buffer;
+    }
+
+    private ByteBuffer readByteBuffer(String key) {
+        long stamp = stamp(key);
+        XCacheMemory.Value cached = cachedValue(key, stamp);
+        if (cached == REMOVED_VALUE) {
+            return null;
+        }
+        if (cached != null) {
+            return ByteBuffer.wrap(cached.data).asReadOnlyBuffer();
+        }
+        if (mMapped != null) {
+            ByteBuffer mapped = mMapped.get(key, System.currentTimeMillis());
+            //同时更新索引中的访问顺序
+            if (mapped != null && mCache.get(key) != null) {
+                return mapped;
+            }
+        }
+        File file = mCache.get(key);
+        if (file != null && mMapped != null && file.length() >= MIN_MAP_SIZE) {
+            ByteBuffer mapped = mapFile(key, file);
+            if (mapped != null) {
+                return mapped;
+            }
+        }
+        byte[] data = readFile(key, file, BYTES_DECODER, false, stamp);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * 映射文件的数据部分并保留映射
+     * 持有key的写锁，映射的一定是索引中当前的文件，之后的覆盖和删除会在同一把锁内移除这个映射
+     *
+     * @param key
+     * @param file
+     * @return 旧版格式、压缩、过期或文件不完整时返回null，由调用方按普通方式读取
+     */
+    private ByteBuffer mapFile(String key, File file) {
+        ReentrantLock lock = keyLock(key);
+        lock.lock();
+        try {
+            RandomAccessFile raFile = null;
+            try {
+                raFile = new RandomAccessFile(file, "r");
+                XCacheHeader header = XCacheHeader.read(raFile, false);
+                if (header == null || (header.flags & XCacheHeader.FLAG_COMPRESSED) != 0
+                        || header.isExpired(System.currentTimeMillis()) || header.payloadLength < 0
+                        || header.payloadOffset() + header.payloadLength > raFile.length()) {
+                    return null;
+                }
+                //映射在文件关闭后仍然有效
+                ByteBuffer mapped = raFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, header.payloadOffset(), header.payloadLength)
+                        .asReadOnlyBuffer();
+                mMapped.put(key, header.expireAt, mapped);
+                return mapped.duplicate();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (raFile != null) {
+                    try {
+                        raFile.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 数据部分的解码
+     *
+     * @param <T>
+     */
+    interface EntryDecoder<T> {
+        /**
+         * 解码
+         *
+         * @param flags    头部标记，旧版格式为0
+         * @param expireAt 过期时间
+         * @param data     数据，只有[0, length)有效
+         * @param length   数据长度
+         * @return
+         * @throws Exception
+         */
+        T decode(int flags, long expireAt, byte[] data, int length) throws Exception;
+    }
+
+    /**
+     * 已删除或已过期的标记
+     */
+    private static final XCacheMemory.Value REMOVED_VALUE = new XCacheMemory.Value(0, XCacheEntry.NEVER_EXPIRE, new byte[0]);
+
+    /**
+     * 原样返回，不复用缓冲区时data的长度正好是length
+     */
+    private static final EntryDecoder<byte[]> BYTES_DECODER = new EntryDecoder<byte[]>() {
+        @Override
+        public byte[] decode(int flags, long expireAt, byte[] data, int length) {
+            return data;
+        }
+    };
+
+    /**
+     * 新格式按UTF-8解码，旧版用FileWriter写入的数据按平台默认编码解码
+     */
+    private static final EntryDecoder<String> STRING_DECODER = new EntryDecoder<String>() {
+        @Override
+        public String decode(int flags, long expireAt, byte[] data, int length) {
+            if ((flags & XCacheHeader.FLAG_UTF8_STRING) != 0) {
+                return XCacheStringCodec.decode(data, 0, length);
+            }
+            return new String(data, 0, length);
+        }
+    };
+
+    /**
+     * 写入一条缓存：二进制头部 + key + 数据
+     *
+     * @param key
+     * @param flags    头部标记
+     * @param value
+     * @param expireAt 过期时间
+     * @param shared   value是否还被调用方持有，是的话放入内存缓存前需要复制
+     */
+    void writeEntry(String key, int flags, byte[] value, long expireAt, boolean shared) {
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        if (mPendingWrites.containsKey(key)) {
+            //还有没写完的异步写入，排到它后面，避免被旧值覆盖
+            Future<Void> future = enqueueWrite(key, flags, shared ? value.clone() : value, expireAt);
+            awaitIfNotIoThread(future);
+        } else {
+            writeEntryNow(key, flags, value, expireAt, shared);
+        }
+        recordLatency(Stats.Operation.PUT, key, value.length, start, sampled);
+    }
+
+    private void writeEntryNow(String key, int flags, byte[] value, long expireAt, boolean shared) {
+        ReentrantLock lock = keyLock(key);
+        lock.lock();
+        try {
+            if (usePack(value.length)) {
+                beginSection("XCache.put");
+                try {
+                    writePacked(key, flags, value, expireAt, shared);
+                } finally {
+                    endSection();
+                }
+                return;
+            }
+            boolean written;
+            Reservation reservation = mCache.reserve(key, XCacheHeader.fileLength(key, value.length));
+            beginSection("XCache.put");
+            try {
+                written = writeFile(key, mCache.newFile(key), flags, value, expireAt, shared);
+            } finally {
+                endSection();
+            }
+            if (written) {
+                mCache.put(key, expireAt, reservation);
+                if (mPack != null) {
+                    mPack.remove(key);
+                }
+            } else {
+                mCache.release(reservation);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 是否写入段文件
+     *
+     * @param length 数据长度
+     * @return
+     */
+    private boolean usePack(int length) {
+        return mPack != null && length <= mPackThreshold;
+    }
+
+    /**
+     * 按设置压缩
+     *
+     * @param value
+     * @return 未开启、数据太小或压缩后没有变小时返回null
+     */
+    private byte[] compress(byte[] value) {
+        if (mCodec == null || value.length < mCompressThreshold) {
+            return null;
+        }
+        try {
+            byte[] compressed = mCodec.compress(value);
+            return compressed.length < value.length ? compressed : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 解压带 {@link XCacheHeader#FLAG_COMPRESSED} 标记的数据
+     *
+     * @return
+     * @throws IOException 未设置codec或数据损坏
+     */
+    private byte[] decompress(byte[] data, int offset, int length) throws IOException {
+        if (mCodec == null) {
+            throw new IOException("compressed entry but no codec");
+        }
+        return mCodec.decompress(data, offset, length);
+    }
+
+    /**
+     * 写入段文件，同时删除之前的单个文件，调用方需持有 {@link #keyLock(String)}
+     *
+     * @return 是否写入成功
+     */
+    private boolean writePacked(String key, int flags, byte[] value, long expireAt, boolean shared) {
+        byte[] compressed = compress(value);
+        boolean success = compressed != null
+                ? mPack.put(key, flags | XCacheHeader.FLAG_COMPRESSED, expireAt, compressed)
+                : mPack.put(key, flags, expireAt, value);
+        if (!success) {
+            return false;
+        }
+        recordCount(XCacheStatsCounter.BYTES_WRITTEN, compressed != null ? compressed.length : value.length);
+        if (mMemory != null) {
+            mMemory.put(key, new XCacheMemory.Value(flags, expireAt, shared ? value.clone() : value));
+        }
+        invalidate(key);
+        mCache.remove(key);
+        return true;
+    }
+
+    /**
+     * 写入临时文件后rename为目标文件，并更新内存缓存，不更新索引，调用方需持有 {@link #keyLock(String)}
+     * 写入失败时目标文件保持原样
+     *
+     * @return 是否写入成功
+     */
+    private boolean writeFile(String key, File file, int flags, byte[] value, long expireAt, boolean shared) {
+        File tempFile = null;
+        FileOutputStream out = null;
+        boolean success = false;
+        int written = 0;
+        try {
+            tempFile = tempFileFor(file);
+            out = new FileOutputStream(tempFile);
+            byte[] compressed = compress(value);
+            if (compressed != null) {
+                out.write(XCacheHeader.encode(key, flags | XCacheHeader.FLAG_COMPRESSED, expireAt, compressed.length));
+                out.write(compressed);
+                written = compressed.length;
+            } else {
+                out.write(XCacheHeader.encode(key, flags, expireAt, value.length));
+                out.write(value);
+                written = value.length;
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+            }
+        }
+        if (success && !tempFile.renameTo(file)) {
+            System.err.println("can't rename " + tempFile + " to " + file);
+            success = false;
+        }
+        if (success) {
+            if (mMemory != null) {
+                mMemory.put(key, new XCacheMemory.Value(flags, expireAt, shared ? value.clone() : value));
+            }
+            invalidate(key);
+            recordCount(XCacheStatsCounter.BYTES_WRITTEN, written);
+        } else if (tempFile != null) {
+            tempFile.delete();
+        }
+        return success;
+    }
+
+    /**
+     * 读取一条缓存的数据部分，依次查找等待写入的队列、内存缓存、磁盘
+     *
+     * @param key
+     * @param decoder     解码
+     * @param reuseBuffer 是否读入线程内复用的缓冲区，只有解码结果不引用data时才能复用
+     * @return 不存在、过期或文件不完整时返回null
+     */
+    <T> T readEntry(String key, EntryDecoder<T> decoder, boolean reuseBuffer) {
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        if (!sampled) {
+            T value = readEntryNow(key, decoder, reuseBuffer);
+            recordRead(key, start, false, value != null, -1);
+            return value;
+        }
+        LengthDecoder<T> lengthDecoder = new LengthDecoder<T>(decoder);
+        T value = readEntryNow(key, lengthDecoder, reuseBuffer);
+        recordRead(key, start, true, value != null, lengthDecoder.length);
+        return value;
+    }
+
+    /**
+     * 读取并缓存解析结果，开启 {@link BaseBuilder#parsedCacheSize(int)} 时，同一个key用同一个parser再次读取直接返回上次的结果
+     * 解析结果不能引用读取缓冲区
+     *
+     * @param key
+     * @param parser  解析结果按它区分，需要复用同一个实例才能命中
+     * @param decoder 解析数据
+     * @return 不存在、过期或解析失败时返回null
+     */
+    @SuppressWarnings("unchecked")
+    <T> T readParsed(final String key, final Object parser, final EntryDecoder<T> decoder) {
+        if (mParsed == null) {
+            return readEntry(key, decoder, true);
+        }
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        Object parsed = mParsed.get(key, parser, System.currentTimeMillis());
+        if (parsed != null) {
+            recordRead(key, start, sampled, true, -1);
+            return (T) parsed;
+        }
+        //只有同一分段的写入和删除会让这次解析的结果不能保存
+        final long stamp = stamp(key);
+        return readEntry(key, new EntryDecoder<T>() {
+            @Override
+            public T decode(int flags, long expireAt, byte[] data, int length) throws Exception {
+                T value = decoder.decode(flags, expireAt, data, length);
+                if (value != null) {
+                    fillParsed(key, parser, expireAt, value, stamp);
+                }
+                return value;
+            }
+        }, true);
+    }
+
+    /**
+     * 解析完成后保存结果，和 {@link #fillMemory(String, XCacheMemory.Value, long)} 一样在写锁内确认分段的修改计数没变
+     */
+    private void fillParsed(String key, Object parser, long expireAt, Object value, long stamp) {
+        ReentrantLock lock = keyLock(key);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (stamp(key) == stamp) {
+                mParsed.put(key, parser, expireAt, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录解码前的数据长度，只在上报事件时使用
+     */
+    private static class LengthDecoder<T> implements EntryDecoder<T> {
+        private final EntryDecoder<T> decoder;
+        long length = -1;
+
+        LengthDecoder(EntryDecoder<T> decoder) {
+            this.decoder = decoder;
+        }
+
+        @Override
+        public T decode(int flags, long expireAt, byte[] data, int length) throws Exception {
+            this.length = length;
+            return decoder.decode(flags, expireAt, data, length);
+        }
+    }
+
+    private <T> T readEntryNow(String key, EntryDecoder<T> decoder, boolean reuseBuffer) {
+        long stamp = stamp(key);
+        XCacheMemory.Value cached = cachedValue(key, stamp);
+        if (cached == REMOVED_VALUE) {
+            return null;
+        }
+        if (cached != null) {
+            return decodeCached(cached, decoder, reuseBuffer);
+        }
+        File file = mCache.get(key);
+        beginSection("XCache.get");
+        try {
+            return readFile(key, file, decoder, reuseBuffer, stamp);
+        } finally {
+            endSection();
+        }
+    }
+
+    /**
+     * 从等待写入的队列、内存缓存和段文件中读取
+     *
+     * @param key
+     * @param stamp 读取前的 {@link #stamp(String)}，从段文件读出时用于回填内存缓存
+     * @return null表示需要读单个文件，{@link #REMOVED_VALUE} 表示已删除或已过期
+     */
+    private XCacheMemory.Value cachedValue(String key, long stamp) {
+        PendingWrite pending = mPendingWrites.get(key);
+        if (pending != null) {
+            if (pending.removed || pending.isExpired(System.currentTimeMillis())) {
+                return REMOVED_VALUE;
+            }
+            return new XCacheMemory.Value(pending.flags, pending.expireAt, pending.data);
+        }
+        if (mMemory != null) {
+            XCacheMemory.Value cached = mMemory.get(key, System.currentTimeMillis());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (mPack != null) {
+            XCacheMemory.Value packed = mPack.get(key, System.currentTimeMillis());
+            if (packed != null && (packed.flags & XCacheHeader.FLAG_COMPRESSED) != 0) {
+                try {
+                    packed = new XCacheMemory.Value(packed.flags & ~XCacheHeader.FLAG_COMPRESSED, packed.expireAt,
+                            decompress(packed.data, 0, packed.data.length));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return REMOVED_VALUE;
+                }
+            }
+            if (packed != null && mMemory != null) {
+                fillMemory(key, packed, stamp);
+            }
+            return packed;
+        }
+        return null;
+    }
+
+    private <T> T decodeCached(XCacheMemory.Value cached, EntryDecoder<T> decoder, boolean reuseBuffer) {
+        byte[] data = reuseBuffer ? cached.data : cached.data.clone();
+        try {
+            return decoder.decode(cached.flags, cached.expireAt, data, data.length);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 从磁盘读取一条缓存的数据部分
+     * 先读固定长度的头部，过期时直接删除，不读取数据部分；旧版ASCII前缀格式的文件整体读取后解析
+     *
+     * @param key
+     * @param file        索引中的文件，可以为null
+     * @param decoder     解码
+     * @param reuseBuffer 是否读入线程内复用的缓冲区，只有解码结果不引用data时才能复用
+     * @param stamp       查询索引前的 {@link #stamp(String)}，用于回填内存缓存
+     * @return 不存在、过期或文件不完整时返回null
+     */
+    private <T> T readFile(String key, File file, EntryDecoder<T> decoder, boolean reuseBuffer, long stamp) {
+        RandomAccessFile raFile = null;
+        boolean removeFile = false;
+        try {
+            if (file == null || !file.exists()){
+                return null;
+            }
+            raFile = new RandomAccessFile(file, "r");
+            XCacheHeader header = XCacheHeader.read(raFile, false);
+            if (header == null) {
+                raFile.seek(0);
+                byte[] byteArray = new byte[(int) raFile.length()];
+                raFile.readFully(byteArray);
+                recordCount(XCacheStatsCounter.BYTES_READ, byteArray.length);
+                if (!XCacheUtils.isDue(byteArray)) {
+                    byte[] data = XCacheUtils.clearDateInfo(byteArray);
+                    return decoder.decode(0, XCacheUtils.legacyExpireAt(byteArray), data, data.length);
+                }
+                recordRemoval(Event.EXPIRE, key, byteArray.length, 0);
+                removeFile = true;
+                return null;
+            }
+            if (header.isExpired(System.currentTimeMillis())) {
+                recordRemoval(Event.EXPIRE, key, raFile.length(), 0);
+                removeFile = true;
+                return null;
+            }
+            if (header.payloadLength < 0 || header.payloadOffset() + header.payloadLength > raFile.length()) {
+                removeFile = true;
+                return null;
+            }
+            int length = (int) header.payloadLength;
+            int flags = header.flags;
+            byte[] data = reuseBuffer || (flags & XCacheHeader.FLAG_COMPRESSED) != 0
+                    ? XCacheStringCodec.scratch(length) : new byte[length];
+            raFile.seek(header.payloadOffset());
+            raFile.readFully(data, 0, length);
+            recordCount(XCacheStatsCounter.BYTES_READ, length);
+            if ((flags & XCacheHeader.FLAG_COMPRESSED) != 0) {
+                data = decompress(data, 0, length);
+                length = data.length;
+                flags &= ~XCacheHeader.FLAG_COMPRESSED;
+            }
+            if (mMemory != null) {
+                fillMemory(key, new XCacheMemory.Value(flags, header.expireAt, Arrays.copyOf(data, length)), stamp);
+            }
+            return decoder.decode(flags, header.expireAt, data, length);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (raFile != null) {
+                try {
+                    raFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (removeFile){
+                removeNow(key);
+            }
+        }
+    }
+    // ============== 批量 读写 =============
+    /**
+     * 批量保存 String数据，整批只做一次淘汰和一次日志写入
+     *
+     * @param values key到String数据
+     * @return key到是否保存成功
+     */
+    public Map<String, Boolean> putAll(Map<String, String> values) {
+        return putAll(values, time);
+    }
+
+    /**
+     * 批量保存 String数据，整批只做一次淘汰和一次日志写入
+     *
+     * @param values   key到String数据
+     * @param saveTime 保存的时间，单位：秒
+     * @return key到是否保存成功
+     */
+    public Map<String, Boolean> putAll(Map<String, String> values, int saveTime) {
+        Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> item : values.entrySet()) {
+            encoded.put(item.getKey(), XCacheStringCodec.encode(item.getValue()));
+        }
+        return writeEntries(encoded, XCacheHeader.FLAG_UTF8_STRING, XCacheUtils.expireAt(saveTime), false);
+    }
+
+    /**
+     * 批量保存 byte数据，整批只做一次淘汰和一次日志写入
+     *
+     * @param values key到数据
+     * @return key到是否保存成功
+     */
+    public Map<String, Boolean> putAllBinary(Map<String, byte[]> values) {
+        return putAllBinary(values, time);
+    }
+
+    /**
+     * 批量保存 byte数据，整批只做一次淘汰和一次日志写入
+     *
+     * @param values   key到数据
+     * @param saveTime 保存的时间，单位：秒
+     * @return key到是否保存成功
+     */
+    public Map<String, Boolean> putAllBinary(Map<String, byte[]> values, int saveTime) {
+        return writeEntries(values, 0, XCacheUtils.expireAt(saveTime), true);
+    }
+
+    /**
+     * 批量读取 String数据
+     *
+     * @param keys
+     * @return key到String数据，不存在或过期的key不在结果中
+     */
+    public Map<String, String> getAll(Collection<String> keys) {
+        return readEntries(keys, STRING_DECODER, true);
+    }
+
+    /**
+     * 批量读取 byte数据
+     *
+     * @param keys
+     * @return key到数据，不存在或过期的key不在结果中
+     */
+    public Map<String, byte[]> getAllBinary(Collection<String> keys) {
+        return readEntries(keys, BYTES_DECODER, false);
+    }
+
+    /**
+     * 批量删除，只写一次日志
+     *
+     * @param keys
+     * @return key到是否存在并被删除
+     */
+    public Map<String, Boolean> removeAll(Collection<String> keys) {
+        Map<String, Boolean> removed = new HashMap<String, Boolean>();
+        Map<String, Boolean> results;
+        //和单条删除一样持有key的锁直到失效完成，读取中的旧值不会在删除之后回填内存缓存
+        List<ReentrantLock> locks = lockAll(keys);
+        try {
+            for (String key : keys) {
+                PendingWrite pending = mPendingWrites.get(key);
+                if (pending != null && !pending.removed) {
+                    removed.put(key, Boolean.TRUE);
+                }
+                cancelPendingWrite(key);
+                if (mMemory != null) {
+                    mMemory.remove(key);
+                }
+                if (mPack != null && mPack.remove(key)) {
+                    removed.put(key, Boolean.TRUE);
+                }
+            }
+            results = mCache.removeAll(keys);
+            for (String key : keys) {
+                invalidate(key);
+            }
+        } finally {
+            unlockAll(locks);
+        }
+        for (String key : removed.keySet()) {
+            results.put(key, Boolean.TRUE);
+        }
+        return results;
+    }
+
+    /**
+     * 批量写入，按文件路径顺序写，同一个分片目录的文件相邻，最后一次性更新索引
+     *
+     * @param values   key到数据
+     * @param flags    头部标记
+     * @param expireAt 过期时间
+     * @param shared   value是否还被调用方持有
+     * @return key到是否保存成功
+     */
+    private Map<String, Boolean> writeEntries(Map<String, byte[]> values, int flags, long expireAt, boolean shared) {
+        Map<String, Boolean> results = new LinkedHashMap<String, Boolean>(values.size() * 4 / 3 + 1);
+        List<Map.Entry<String, File>> files = new ArrayList<Map.Entry<String, File>>(values.size());
+        for (Map.Entry<String, byte[]> item : values.entrySet()) {
+            String key = item.getKey();
+            results.put(key, Boolean.FALSE);
+            if (mPendingWrites.containsKey(key)) {
+                //还有没写完的异步写入，单独排到它后面
+                writeEntry(key, flags, item.getValue(), expireAt, shared);
+                results.put(key, Boolean.TRUE);
+            } else if (usePack(item.getValue().length)) {
+                ReentrantLock lock = keyLock(key);
+                lock.lock();
+                try {
+                    results.put(key, writePacked(key, flags, item.getValue(), expireAt, shared));
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                files.add(new AbstractMap.SimpleImmutableEntry<String, File>(key, mCache.newFile(key)));
+            }
+        }
+        Collections.sort(files, new Comparator<Map.Entry<String, File>>() {
+            @Override
+            public int compare(Map.Entry<String, File> o1, Map.Entry<String, File> o2) {
+                return o1.getValue().getPath().compareTo(o2.getValue().getPath());
+            }
+        });
+        if (files.isEmpty()) {
+            return results;
+        }
+        List<String> fileKeys = new ArrayList<String>(files.size());
+        for (Map.Entry<String, File> item : files) {
+            fileKeys.add(item.getKey());
+        }
+        //整批的锁一直持有到提交索引之后，写入和提交之间不会插入同一个key的删除或单条写入
+        List<ReentrantLock> locks = lockAll(fileKeys);
+        try {
+            //整批只预留一次，先预留再rename，预留触发的淘汰不会删掉本批已经rename的新文件
+            Map<String, Long> sizes = new LinkedHashMap<String, Long>(files.size() * 4 / 3 + 1);
+            for (String key : fileKeys) {
+                sizes.put(key, XCacheHeader.fileLength(key, values.get(key).length));
+            }
+            Reservation reservation = mCache.reserveAll(sizes);
+            Map<String, Long> written = new LinkedHashMap<String, Long>(files.size() * 4 / 3 + 1);
+            for (Map.Entry<String, File> item : files) {
+                String key = item.getKey();
+                if (writeFile(key, item.getValue(), flags, values.get(key), expireAt, shared)) {
+                    written.put(key, expireAt);
+                    results.put(key, Boolean.TRUE);
+                    if (mPack != null) {
+                        mPack.remove(key);
+                    }
+                }
+            }
+            if (written.isEmpty()) {
+                mCache.release(reservation);
+            } else {
+                //写入失败的key不会计入占用，和预留的差值在提交时一起修正
+                mCache.putAll(written, reservation);
+            }
+        } finally {
+            unlockAll(locks);
+        }
+        return results;
+    }
+
+    /**
+     * 批量读取，先查等待写入的队列和内存缓存，其余按文件路径顺序读磁盘
+     */
+    private <T> Map<String, T> readEntries(Collection<String> keys, EntryDecoder<T> decoder, boolean reuseBuffer) {
+        Map<String, T> results = new LinkedHashMap<String, T>(keys.size() * 4 / 3 + 1);
+        List<String> diskKeys = new ArrayList<String>(keys.size());
+        Map<String, Long> stamps = new HashMap<String, Long>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            long stamp = stamp(key);
+            XCacheMemory.Value cached = cachedValue(key, stamp);
+            if (cached == null) {
+                diskKeys.add(key);
+                stamps.put(key, stamp);
+            } else if (cached != REMOVED_VALUE) {
+                T value = decodeCached(cached, decoder, reuseBuffer);
+                if (value != null) {
+                    results.put(key, value);
+                }
+            }
+        }
+        if (!diskKeys.isEmpty()) {
+            for (Map.Entry<String, File> item : mCache.getAll(diskKeys).entrySet()) {
+                T value = readFile(item.getKey(), item.getValue(), decoder, reuseBuffer, stamps.get(item.getKey()));
+                if (value != null) {
+                    results.put(item.getKey(), value);
+                }
+            }
+        }
+        recordCount(XCacheStatsCounter.HITS, results.size());
+        recordCount(XCacheStatsCounter.MISSES, keys.size() - results.size());
+        return results;
+    }
+    // ============== 流式 读写 =============
+    /**
+     * 打开一个写入流，数据直接写入缓存文件，适合较大的数据
+     * close时提交并计算大小、执行淘汰；写入出错或调用 {@link EntryOutputStream#abort()} 时丢弃
+     *
+     * @param key
+     *            保存的key
+     * @return 写入流
+     * @throws IOException
+     */
+    public EntryOutputStream openOutputStream(String key) throws IOException {
+        return openOutputStream(key, time);
+    }
+
+    /**
+     * 打开一个写入流，数据直接写入缓存文件，适合较大的数据
+     *
+     * @param key
+     *            保存的key
+     * @param saveTime
+     *            保存的时间，单位：秒
+     * @return 写入流
+     * @throws IOException
+     */
+    public EntryOutputStream openOutputStream(String key, int saveTime) throws IOException {
+        PendingWrite pending = mPendingWrites.get(key);
+        if (pending != null) {
+            awaitIfNotIoThread(pending.task);
+        }
+        long expireAt = XCacheUtils.expireAt(saveTime);
+        File file = mCache.newFile(key);
+        File tempFile = tempFileFor(file);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(XCacheHeader.encode(key, 0, expireAt, XCacheHeader.UNKNOWN_LENGTH));
+        } catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        return new EntryOutputStream(key, expireAt, file, tempFile, out);
+    }
+
+    /**
+     * 打开一个读取流，只读取数据部分，不会把整个文件读入内存
+     *
+     * @param key
+     * @return 读取流，不存在、过期或文件不完整时返回null
+     */
+    public InputStream openInputStream(String key) {
+        boolean sampled = sampleEvent();
+        long start = startTimer(sampled);
+        InputStream in = openInputStreamNow(key);
+        recordRead(key, start, sampled, in != null, -1);
+        return in;
+    }
+
+    private InputStream openInputStreamNow(String key) {
+        FileInputStream in = null;
+        boolean removeFile = false;
+        try {
+            XCacheMemory.Value cached = cachedValue(key, stamp(key));
+            if (cached == REMOVED_VALUE) {
+                return null;
+            }
+            if (cached != null) {
+                return new ByteArrayInputStream(cached.data);
+            }
+            File file = mCache.get(key);
+            if (file == null || !file.exists()){
+                return null;
+            }
+            in = new FileInputStream(file);
+            XCacheHeader header = XCacheHeader.read(new DataInputStream(in), false);
+            if (header == null || (header.flags & XCacheHeader.FLAG_COMPRESSED) != 0) {
+                in.close();
+                in = null;
+                //旧版格式和压缩的数据都是put写入的，文件不大，整体读取
+                byte[] data = readEntryNow(key, BYTES_DECODER, false);
+                return data == null ? null : new ByteArrayInputStream(data);
+            }
+            if (header.isExpired(System.currentTimeMillis())) {
+                recordRemoval(Event.EXPIRE, key, file.length(), 0);
+                removeFile = true;
+                return null;
+            }
+            if (header.payloadLength < 0 || header.payloadOffset() + header.payloadLength > file.length()) {
+                removeFile = true;
+                return null;
+            }
+            recordCount(XCacheStatsCounter.BYTES_READ, header.payloadLength);
+            long skip = header.keyLength;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+                skip -= skipped;
+            }
+            EntryInputStream entryIn = new EntryInputStream(in, header.payloadLength);
+            in = null;
+            return entryIn;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (removeFile){
+                removeNow(key);
+            }
+        }
+    }
+
+    /**
+     * 缓存写入流，写入临时文件，close时回填数据长度并重命名为正式文件
+     */
+    public class EntryOutputStream extends FilterOutputStream {
+        private final String key;
+        private final long expireAt;
+        private final File file;
+        private final File tempFile;
+        private final FileOutputStream fileOut;
+        /**
+         * 和put一样在打开时决定是否上报事件，耗时从打开算到提交
+         */
+        private final boolean sampled;
+        private final long start;
+        private long written;
+        private boolean hasErrors;
+        private boolean closed;
+
+        private EntryOutputStream(String key, long expireAt, File file, File tempFile, FileOutputStream fileOut) {
+            super(new BufferedOutputStream(fileOut, 8192));
+            this.key = key;
+            this.expireAt = expireAt;
+            this.file = file;
+            this.tempFile = tempFile;
+            this.fileOut = fileOut;
+            this.sampled = sampleEvent();
+            this.start = startTimer(sampled);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+                written++;
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+                written += len;
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
+            }
+        }
+
+        /**
+         * 放弃本次写入
+         */
+        public void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tempFile.delete();
+        }
+
+        /**
+         * 提交本次写入
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (hasErrors) {
+                abort();
+                return;
+            }
+            closed = true;
+            try {
+                out.flush();
+                XCacheHeader.writePayloadLength(fileOut.getChannel(), written);
+            } catch (IOException e) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                tempFile.delete();
+                throw e;
+            }
+            out.close();
+            ReentrantLock lock = keyLock(key);
+            lock.lock();
+            try {
+                //写完才知道大小，提交前预留
+                Reservation reservation = mCache.reserve(key, XCacheHeader.fileLength(key, written));
+                if (!tempFile.renameTo(file)) {
+                    mCache.release(reservation);
+                    tempFile.delete();
+                    throw new IOException("can't rename " + tempFile + " to " + file);
+                }
+                if (mMemory != null) {
+                    mMemory.remove(key);
+                }
+                invalidate(key);
+                mCache.put(key, expireAt, reservation);
+                if (mPack != null) {
+                    mPack.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+            recordCount(XCacheStatsCounter.BYTES_WRITTEN, written);
+            recordLatency(Stats.Operation.PUT, key, written, start, sampled);
+        }
+    }
+
+    /**
+     * 缓存读取流，只能读到数据部分的末尾
+     */
+    private static class EntryInputStream extends FilterInputStream {
+        private long remaining;
+
+        private EntryInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            if (skipped > 0) {
+                remaining -= skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    // ============== 异步 读写 =============
+    /**
+     * 异步读取结果回调，在异步读写线程中执行
+     *
+     * @param <T>
+     */
+    public interface Callback<T> {
+        /**
+         * @param value 读取到的数据，不存在时为null
+         */
+        void onResult(T value);
+    }
+
+    /**
+     * 异步保存 String数据，同一个key连续写入时只会把最新的值写入磁盘，
+     * 写入完成前的读取直接返回最新的值
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的String数据
+     * @return 写入磁盘完成的Future
+     */
+    public Future<Void> putAsync(String key, String value) {
+        return putAsync(key, value, time);
+    }
+
+    /**
+     * 异步保存 String数据
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的String数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     * @return 写入磁盘完成的Future
+     */
+    public Future<Void> putAsync(String key, String value, int saveTime) {
+        return enqueueWrite(key, XCacheHeader.FLAG_UTF8_STRING, XCacheStringCodec.encode(value),
+                XCacheUtils.expireAt(saveTime));
+    }
+
+    /**
+     * 异步保存 byte数据
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的数据
+     * @return 写入磁盘完成的Future
+     */
+    public Future<Void> putAsync(String key, byte[] value) {
+        return putAsync(key, value, time);
+    }
+
+    /**
+     * 异步保存 byte数据
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     * @return 写入磁盘完成的Future
+     */
+    public Future<Void> putAsync(String key, byte[] value, int saveTime) {
+        return enqueueWrite(key, 0, value.clone(), XCacheUtils.expireAt(saveTime));
+    }
+
+    /**
+     * 异步读取 String数据
+     *
+     * @param key
+     * @param callback 可以为null
+     * @return
+     */
+    public Future<String> getStringAsync(final String key, final Callback<String> callback) {
+        return mIoExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                String value = getString(key);
+                if (callback != null) {
+                    callback.onResult(value);
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * 异步读取 byte数据
+     *
+     * @param key
+     * @param callback 可以为null
+     * @return
+     */
+    public Future<byte[]> getBinaryAsync(final String key, final Callback<byte[]> callback) {
+        return mIoExecutor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                byte[] value = getBinary(key);
+                if (callback != null) {
+                    callback.onResult(value);
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * 放入写入队列，已经有等待写入的值时直接替换，由正在排队的任务写入
+     *
+     * @param key
+     * @param flags    头部标记
+     * @param data     数据，调用方不能再修改
+     * @param expireAt 过期时间
+     * @return 写入磁盘完成的Future
+     */
+    private Future<Void> enqueueWrite(String key, int flags, byte[] data, long expireAt) {
+        while (true) {
+            PendingWrite previous = mPendingWrites.get(key);
+            if (previous == null) {
+                PendingWrite write = new PendingWrite(flags, data, expireAt, false,
+                        new FutureTask<Void>(new FlushTask(key)));
+                if (mPendingWrites.putIfAbsent(key, write) == null) {
+                    invalidate(key);
+                    mIoExecutor.execute(write.task);
+                    return write.task;
+                }
+            } else {
+                PendingWrite write = new PendingWrite(flags, data, expireAt, false, previous.task);
+                if (mPendingWrites.replace(key, previous, write)) {
+                    invalidate(key);
+                    return write.task;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把等待写入的值替换为删除标记，正在写入的任务写完后会把它删掉
+     *
+     * @param key
+     */
+    private void cancelPendingWrite(String key) {
+        PendingWrite pending;
+        while ((pending = mPendingWrites.get(key)) != null && !pending.removed) {
+            PendingWrite removed = new PendingWrite(0, null, XCacheEntry.NEVER_EXPIRE, true, pending.task);
+            if (mPendingWrites.replace(key, pending, removed)) {
+                invalidate(key);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 等待写入完成，在异步读写线程中调用时不等待，避免线程池被占满时互相等待
+     *
+     * @param future
+     */
+    private void awaitIfNotIoThread(Future<?> future) {
+        if (Thread.currentThread() instanceof IoThread) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入某个key的所有等待写入的值，写完时如果又有新值则继续写，直到没有为止
+     */
+    private class FlushTask implements Callable<Void> {
+        private final String key;
+
+        private FlushTask(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Void call() {
+            PendingWrite write;
+            while ((write = mPendingWrites.get(key)) != null) {
+                try {
+                    if (write.removed) {
+                        removeNow(key);
+                    } else {
+                        writeEntryNow(key, write.flags, write.data, write.expireAt, false);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                if (mPendingWrites.remove(key, write)) {
+                    break;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 写入前预留的大小和数量，提交时按实际大小修正，写入失败时归还
+     */
+    private static final class Reservation {
+        static final Reservation NONE = new Reservation(0, 0);
+
+        final long bytes;
+        final int slots;
+
+        Reservation(long bytes, int slots) {
+            this.bytes = bytes;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * 等待写入的值
+     */
+    private static class PendingWrite {
+        private final int flags;
+        private final byte[] data;
+        private final long expireAt;
+        /**
+         * 删除标记
+         */
+        private final boolean removed;
+        /**
+         * 负责写入这个key的任务，被替换时沿用上一个值的任务
+         */
+        private final FutureTask<Void> task;
+
+        private PendingWrite(int flags, byte[] data, long expireAt, boolean removed, FutureTask<Void> task) {
+            this.flags = flags;
+            this.data = data;
+            this.expireAt = expireAt;
+            this.removed = removed;
+            this.task = task;
+        }
+
+        private boolean isExpired(long now) {
+            return expireAt != XCacheEntry.NEVER_EXPIRE && now > expireAt;
+        }
+    }
+
+    /**
+     * 异步读写线程
+     */
+    private static class IoThread extends Thread {
+        private IoThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+    // ============= 序列化 数据 读写 ===============
+    /**
+     * 保存 Serializable数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的value
+     */
+    public void put(String key, Serializable value) {
+        put(key, value, -1);
+    }
+
+    /**
+     * 保存 Serializable数据到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的value
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, Serializable value, int saveTime) {
+        put(key, value, JAVA_SERIALIZER, saveTime != -1 ? saveTime : time);
+    }
+
+    /**
+     * 读取 Serializable数据
+     *
+     * @param key
+     * @return Serializable 数据
+     */
+    public Object getObject(String key) {
+        return get(key, JAVA_SERIALIZER);
+    }
+
+    /**
+     * 用指定的序列化方式保存数据
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的value
+     * @param serializer
+     *            序列化方式，读取时需要使用同一种
+     */
+    public <T> void put(String key, T value, Serializer<? super T> serializer) {
+        put(key, value, serializer, time);
+    }
+
+    /**
+     * 用指定的序列化方式保存数据
+     * 没有开启压缩和段文件存储时直接写入缓存文件，不经过中间的byte数组；否则序列化后按普通数据写入
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的value
+     * @param serializer
+     *            序列化方式，读取时需要使用同一种
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public <T> void put(String key, T value, Serializer<? super T> serializer, int saveTime) {
+        if (mCodec != null || mPack != null) {
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(baos);
+                serializer.write(value, out);
+                out.flush();
+                writeEntry(key, 0, baos.toByteArray(), XCacheUtils.expireAt(saveTime), false);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        EntryOutputStream entryOut = null;
+        try {
+            entryOut = openOutputStream(key, saveTime);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(entryOut, 8192));
+            serializer.write(value, out);
+            out.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (entryOut != null) {
+                entryOut.abort();
+            }
+        }
+    }
+
+    /**
+     * 用指定的序列化方式读取数据
+     *
+     * @param key
+     * @param serializer
+     *            序列化方式，需要和保存时一致
+     * @return 不存在、过期或反序列化失败时返回null
+     */
+    public <T> T get(String key, final Serializer<T> serializer) {
+        //反序列化的结果不会引用读取缓冲区，可以复用
+        return readEntry(key, new EntryDecoder<T>() {
+            @Override
+            public T decode(int flags, long expireAt, byte[] data, int length) {
+                try {
+                    return serializer.read(new DataInputStream(new ByteArrayInputStream(data, 0, length)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+        }, true);
+    }
+
+    /**
+     * 序列化方式，需要线程安全
+     *
+     * @param <T>
+     */
+    public interface Serializer<T> {
+        /**
+         * @param value
+         * @param out   不需要关闭
+         * @throws IOException
+         */
+        void write(T value, DataOutputStream out) throws IOException;
+
+        /**
+         * @param in 只包含这一条数据，不需要关闭
+         * @return
+         * @throws IOException
+         */
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static final JavaSerializer JAVA_SERIALIZER = new JavaSerializer();
+
+    /**
+     * Java序列化，兼容 {@link #put(String, Serializable)} 保存的数据，写入完整的类描述，较慢
+     */
+    public static class JavaSerializer implements Serializer<Object> {
+        @Override
+        public void write(Object value, DataOutputStream out) throws IOException {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(value);
+            oos.flush();
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            try {
+                return new ObjectInputStream(in).readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * 紧凑的二进制序列化，每个值只写一个字节的类型标记
+     * 支持null、String、基本类型的包装类、byte[]，以及由它们组成的List、Set、Map，可以嵌套；
+     * 读取时List、Set、Map分别为ArrayList、LinkedHashSet、LinkedHashMap
+     * 其他Serializable对象用Java序列化写入，不是Serializable的对象写入时抛出IOException
+     */
+    public static class CompactSerializer implements Serializer<Object> {
+        private static final int TYPE_NULL = 0;
+        private static final int TYPE_STRING = 1;
+        private static final int TYPE_INT = 2;
+        private static final int TYPE_LONG = 3;
+        private static final int TYPE_BOOLEAN = 4;
+        private static final int TYPE_DOUBLE = 5;
+        private static final int TYPE_FLOAT = 6;
+        private static final int TYPE_SHORT = 7;
+        private static final int TYPE_BYTE = 8;
+        private static final int TYPE_CHAR = 9;
+        private static final int TYPE_BYTES = 10;
+        private static final int TYPE_LIST = 11;
+        private static final int TYPE_SET = 12;
+        private static final int TYPE_MAP = 13;
+        private static final int TYPE_SERIALIZABLE = 14;
+
+        @Override
+        public void write(Object value, DataOutputStream out) throws IOException {
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                writeBytes(XCacheStringCodec.encode((String) value), out);
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Double) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(TYPE_SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(TYPE_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte(TYPE_CHAR);
+                out.writeChar((Character) value);
+            } else if (value instanceof byte[]) {
+                out.writeByte(TYPE_BYTES);
+                writeBytes((byte[]) value, out);
+            } else if (value instanceof List) {
+                out.writeByte(TYPE_LIST);
+                writeItems((List<?>) value, out);
+            } else if (value instanceof Set) {
+                out.writeByte(TYPE_SET);
+                writeItems((Set<?>) value, out);
+            } else if (value instanceof Map) {
+                out.writeByte(TYPE_MAP);
+                Map<?, ?> map = (Map<?, ?>) value;
+                out.writeInt(map.size());
+                for (Map.Entry<?, ?> item : map.entrySet()) {
+                    write(item.getKey(), out);
+                    write(item.getValue(), out);
+                }
+            } else if (value instanceof Serializable) {
+                //带长度写入，读取时ObjectInputStream不会多读后面的数据
+                out.writeByte(TYPE_SERIALIZABLE);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(baos);
+                oos.writeObject(value);
+                oos.close();
+                writeBytes(baos.toByteArray(), out);
+            } else {
+                throw new IOException("can't serialize " + value.getClass().getName());
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            int type = in.readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    byte[] string = readBytes(in);
+                    return XCacheStringCodec.decode(string, 0, string.length);
+                case TYPE_INT:
+                    return in.readInt();
+                case TYPE_LONG:
+                    return in.readLong();
+                case TYPE_BOOLEAN:
+                    return in.readBoolean();
+                case TYPE_DOUBLE:
+                    return in.readDouble();
+                case TYPE_FLOAT:
+                    return in.readFloat();
+                case TYPE_SHORT:
+                    return in.readShort();
+                case TYPE_BYTE:
+                    return in.readByte();
+                case TYPE_CHAR:
+                    return in.readChar();
+                case TYPE_BYTES:
+                    return readBytes(in);
+                case TYPE_LIST: {
+                    int size = readSize(in);
+                    List<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(read(in));
+                    }
+                    return list;
+                }
+                case TYPE_SET: {
+                    int size = readSize(in);
+                    Set<Object> set = new LinkedHashSet<Object>(size * 4 / 3 + 1);
+                    for (int i = 0; i < size; i++) {
+                        set.add(read(in));
+                    }
+                    return set;
+                }
+                case TYPE_MAP: {
+                    int size = readSize(in);
+                    Map<Object, Object> map = new LinkedHashMap<Object, Object>(size * 4 / 3 + 1);
+                    for (int i = 0; i < size; i++) {
+                        map.put(read(in), read(in));
+                    }
+                    return map;
+                }
+                case TYPE_SERIALIZABLE:
+                    try {
+                        return new ObjectInputStream(new ByteArrayInputStream(readBytes(in))).readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                default:
+                    throw new IOException("unknown type " + type);
+            }
+        }
+
+        private void writeItems(Collection<?> items, DataOutputStream out) throws IOException {
+            out.writeInt(items.size());
+            for (Object item : items) {
+                write(item, out);
+            }
+        }
+
+        private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readSize(in)];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static int readSize(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            if (size < 0 || size > in.available() + 1) {
+                throw new IOException("bad size " + size);
+            }
+            return size;
+        }
+    }
+    /**
+     * @author xurunjie
+     * @description
+     * @date 2017/09/26
+     */
+    private class XCacheManager {
+
+        /**
+         * 已占用的大小和数量，包括已提交的条目和写入中的预留，预留只通过CAS增加，不会超过限制
+         */
+        private final AtomicLong cacheSize;
+        private final AtomicInteger cacheCount;
+        /**
+         * 是否有线程正在淘汰，同一时间只有一个回收线程，其他等待空间的写入方在 {@link #reclaimLock} 上等待它结束
+         */
+        private final AtomicBoolean reclaiming = new AtomicBoolean();
+        private final Object reclaimLock = new Object();
+        private final long sizeLimit;
+        private final int countLimit;
+        /**
+         * 按访问顺序排列的LRU索引，表头即最久未使用的条目，所有访问都需持有该对象的锁
+         */
+        private final LinkedHashMap<String, XCacheEntry> lruEntries = new LinkedHashMap<String, XCacheEntry>(16, 0.75f, true);
+        /**
+         * 文件名到key的反查表，用于解决hash冲突，和lruEntries共用一把锁
+         */
+        private final HashMap<String, String> fileOwners = new HashMap<String, String>();
+        /**
+         * 按过期时间排序的索引，只包含会过期的条目，和lruEntries共用一把锁
+         * 修改条目的expireAt前必须先从中移除，修改后再放回，否则排序会错乱
+         */
+        private final TreeSet<XCacheEntry> expiryOrder = new TreeSet<XCacheEntry>(EXPIRE_ORDER);
+        /**
+         * 已安排的下一次清理时间，0表示没有安排，和lruEntries共用一把锁
+         */
+        private long nextSweepAt;
+        /**
+         * 上次写入日志后被读取过的条目，按最后访问的顺序排列，和lruEntries共用一把锁
+         * 读取时不写文件，由 {@link #flushRecency()} 批量写入
+         */
+        private final LinkedHashSet<XCacheEntry> touched = new LinkedHashSet<XCacheEntry>();
+        /**
+         * 淘汰策略，和lruEntries共用一把锁，为null时直接淘汰lruEntries的表头
+         */
+        private final EvictionPolicy policy;
+        private File cacheDir;
+        /**
+         * 索引日志
+         */
+        private final XCacheJournal journal;
+        /**
+         * 索引恢复完成前，所有读写都需要等待，避免大小和数量统计不准
+         */
+        private final CountDownLatch initialized = new CountDownLatch(1);
+        /**
+         * 后台线程，负责恢复索引和压缩日志
+         */
+        private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "xcache-journal");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        /**
+         * 后台线程，在最早的过期时间到达后分批删除过期条目，并定期写入访问顺序
+         */
+        private final ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "xcache-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        private final Runnable sweepTask = new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        };
+        private final Runnable flushRecencyTask = new Runnable() {
+            @Override
+            public void run() {
+                flushRecency();
+            }
+        };
+
+        /**
+         * 构造
+         *
+         * @param cacheDir   缓存路径
+         * @param sizeLimit  内存限制
+         * @param countLimit 数量限制
+         * @param policy     淘汰策略，为null时按LRU淘汰
+         */
+        private XCacheManager(File cacheDir, long sizeLimit, int countLimit, EvictionPolicy policy) {
+            this.cacheDir = cacheDir;
+            this.policy = policy;
+            this.sizeLimit = sizeLimit;
+            this.countLimit = countLimit;
+            cacheSize = new AtomicLong();
+            cacheCount = new AtomicInteger();
+            journal = new XCacheJournal(cacheDir);
+            sweeper.setKeepAliveTime(60L, TimeUnit.SECONDS);
+            sweeper.allowCoreThreadTimeOut(true);
+            calculateCacheSizeAndCacheCount();
+        }
+
+        /**
+         * 计算 cacheSize和cacheCount
+         * 优先顺序读取日志恢复索引，日志不存在或损坏时才遍历目录，并重写日志
+         */
+        private void calculateCacheSizeAndCacheCount() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        LinkedHashMap<String, XCacheEntry> entries = new LinkedHashMap<String, XCacheEntry>(16, 0.75f, true);
+                        boolean replayed = journal.replay(entries);
+                        boolean reconciled = false;
+                        if (replayed) {
+                            reconciled = reconcileFiles(entries);
+                        } else {
+                            entries.clear();
+                            scanCacheDir(entries);
+                        }
+                        long size = 0;
+                        for (XCacheEntry entry : entries.values()) {
+                            size += entry.size;
+                        }
+                        synchronized (lruEntries) {
+                            lruEntries.putAll(entries);
+                            for (XCacheEntry entry : entries.values()) {
+                                fileOwners.put(entry.fileName, entry.key);
+                                addExpiry(entry);
+                                if (policy != null) {
+                                    policy.onPut(entry.key, entry.size);
+                                }
+                            }
+                        }
+                        cacheSize.set(size);
+                        cacheCount.set(entries.size());
+                        if (!replayed || reconciled || journal.needsRebuild(entries.size())) {
+                            journal.rebuild(entries.values());
+                        }
+                    } finally {
+                        initialized.countDown();
+                    }
+                }
+            });
+        }
+
+        /**
+         * 日志恢复索引后核对分片目录，只列目录，只有日志之外的文件才读头部：
+         * 删除上次没有提交的写入留下的临时文件；
+         * rename之后、写日志之前被结束进程留下的文件补进索引，无法识别或已过期的删除，key已有文件时保留较新的一个；
+         * 删除文件之后、写日志之前被结束进程时残留在索引中的条目去掉
+         *
+         * @param entries 日志恢复的索引
+         * @return 是否修改了索引，修改后需要重写日志
+         */
+        private boolean reconcileFiles(Map<String, XCacheEntry> entries) {
+            File[] shardDirs = cacheDir.listFiles();
+            if (shardDirs == null) {
+                return false;
+            }
+            Map<String, XCacheEntry> missing = new HashMap<String, XCacheEntry>(entries.size() * 4 / 3 + 1);
+            for (XCacheEntry entry : entries.values()) {
+                missing.put(entry.fileName, entry);
+            }
+            List<File> untracked = new ArrayList<File>();
+            for (File shardDir : shardDirs) {
+                if (!shardDir.isDirectory() || XCachePack.isPackDir(shardDir)) {
+                    continue;
+                }
+                File[] files = shardDir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (file.getName().endsWith(TEMP_SUFFIX)) {
+                        file.delete();
+                    } else if (missing.remove(relativeName(file)) == null) {
+                        untracked.add(file);
+                    }
+                }
+            }
+            for (XCacheEntry entry : missing.values()) {
+                entries.remove(entry.key);
+            }
+            long now = System.currentTimeMillis();
+            for (File file : untracked) {
+                XCacheHeader header = readHeader(file);
+                if (header == null || header.isExpired(now)) {
+                    file.delete();
+                    continue;
+                }
+                //key已有文件时保留最后修改的一个
+                XCacheEntry existing = entries.get(header.key);
+                if (existing != null) {
+                    File existingFile = new File(cacheDir, existing.fileName);
+                    if (existingFile.lastModified() >= file.lastModified()) {
+                        file.delete();
+                        continue;
+                    }
+                    existingFile.delete();
+                }
+                entries.put(header.key, new XCacheEntry(header.key, relativeName(file), calculateSize(file),
+                        header.expireAt, file.lastModified()));
+            }
+            return !missing.isEmpty() || !untracked.isEmpty();
+        }
+
+        /**
+         * 遍历缓存目录重建索引，按最后修改时间排序后依次插入，保证LRU索引的初始顺序正确
+         * 分片目录中的文件从头部读出key和过期时间，已过期或无法识别的直接删除；
+         * 根目录下的普通文件是旧版平铺目录的缓存，文件名即key，转换为新格式后迁移到分片目录；
+         * 同一个key有多个文件时保留最后修改的一个
+         *
+         * @param entries
+         */
+        private void scanCacheDir(Map<String, XCacheEntry> entries) {
+            File[] cachedFiles = cacheDir.listFiles();
+            if (cachedFiles == null) {
+                return;
+            }
+            final List<File> files = new ArrayList<File>();
+            for (File cachedFile : cachedFiles) {
+                if (XCacheJournal.isJournalFile(cachedFile) || XCachePack.isPackDir(cachedFile)) {
+                    continue;
+                }
+                if (cachedFile.isDirectory()) {
+                    File[] shardFiles = cachedFile.listFiles();
+                    if (shardFiles == null) {
+                        continue;
+                    }
+                    for (File shardFile : shardFiles) {
+                        //上次没有提交的写入
+                        if (shardFile.getName().endsWith(TEMP_SUFFIX)) {
+                            shardFile.delete();
+                        } else {
+                            files.add(shardFile);
+                        }
+                    }
+                } else {
+                    files.add(cachedFile);
+                }
+            }
+            final long[] modified = new long[files.size()];
+            Long[] order = new Long[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                modified[i] = files.get(i).lastModified();
+                order[i] = (long) i;
+            }
+            Arrays.sort(order, new Comparator<Long>() {
+                @Override
+                public int compare(Long o1, Long o2) {
+                    long l = modified[o1.intValue()];
+                    long r = modified[o2.intValue()];
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            long now = System.currentTimeMillis();
+            //同一个key有多个文件时（如旧版平铺文件和分片文件同时存在）保留最后修改的一个，按修改时间顺序后出现的覆盖先出现的
+            Map<String, Integer> newest = new LinkedHashMap<String, Integer>();
+            XCacheHeader[] headers = new XCacheHeader[files.size()];
+            for (Long index : order) {
+                int i = index.intValue();
+                File cachedFile = files.get(i);
+                String key;
+                if (cachedFile.getParentFile().equals(cacheDir)) {
+                    key = cachedFile.getName();
+                } else {
+                    XCacheHeader header = readHeader(cachedFile);
+                    if (header == null || header.isExpired(now)) {
+                        cachedFile.delete();
+                        continue;
+                    }
+                    headers[i] = header;
+                    key = header.key;
+                }
+                Integer older = newest.remove(key);
+                if (older != null) {
+                    files.get(older).delete();
+                }
+                newest.put(key, i);
+            }
+            //先占用保留的分片文件名，迁移旧版文件时不会覆盖它们
+            Map<String, String> owners = new HashMap<String, String>();
+            for (Map.Entry<String, Integer> item : newest.entrySet()) {
+                if (headers[item.getValue()] != null) {
+                    owners.put(relativeName(files.get(item.getValue())), item.getKey());
+                }
+            }
+            for (Map.Entry<String, Integer> item : newest.entrySet()) {
+                String key = item.getKey();
+                File cachedFile = files.get(item.getValue());
+                long lastModified = modified[item.getValue()];
+                XCacheHeader header = headers[item.getValue()];
+                if (header == null) {
+                    String fileName = allocateFileName(owners, key);
+                    File target = new File(cacheDir, fileName);
+                    target.getParentFile().mkdirs();
+                    long expireAt = migrateLegacyFile(cachedFile, target, key, now);
+                    cachedFile.delete();
+                    if (expireAt < 0) {
+                        target.delete();
+                        owners.remove(fileName);
+                        continue;
+                    }
+                    target.setLastModified(lastModified);
+                    entries.put(key, new XCacheEntry(key, fileName, calculateSize(target),
+                            expireAt, lastModified));
+                } else {
+                    entries.put(key, new XCacheEntry(key, relativeName(cachedFile), calculateSize(cachedFile),
+                            header.expireAt, lastModified));
+                }
+            }
+        }
+
+        /**
+         * 把旧版ASCII时间前缀格式的文件转换为二进制头部格式
+         *
+         * @param legacyFile 旧文件
+         * @param target     新文件
+         * @param key
+         * @param now        当前时间
+         * @return 过期时间，已过期或转换失败时返回-1
+         */
+        private long migrateLegacyFile(File legacyFile, File target, String key, long now) {
+            RandomAccessFile raFile = null;
+            FileOutputStream out = null;
+            try {
+                raFile = new RandomAccessFile(legacyFile, "r");
+                byte[] byteArray = new byte[(int) raFile.length()];
+                raFile.readFully(byteArray);
+                long expireAt = XCacheUtils.legacyExpireAt(byteArray);
+                if (expireAt != XCacheEntry.NEVER_EXPIRE && now > expireAt) {
+                    return -1;
+                }
+                byte[] data = XCacheUtils.clearDateInfo(byteArray);
+                out = new FileOutputStream(target);
+                out.write(XCacheHeader.encode(key, 0, expireAt, data.length));
+                out.write(data);
+                return expireAt;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return -1;
+            } finally {
+                if (raFile != null) {
+                    try {
+                        raFile.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private XCacheHeader readHeader(File file) {
+            RandomAccessFile raFile = null;
+            try {
+                raFile = new RandomAccessFile(file, "r");
+                return XCacheHeader.read(raFile, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                if (raFile != null) {
+                    try {
+                        raFile.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 等待索引恢复完成
+         */
+        private void awaitInitialized() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    initialized.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 添加文件，调用前需先通过 {@link #reserve(String, long)} 预留空间，再通过 {@link #newFile(String)} 写入数据
+         * @param key
+         * @param expireAt    过期时间，{@link XCacheEntry#NEVER_EXPIRE} 表示不过期
+         * @param reservation 写入前的预留
+         */
+        private void put(String key, long expireAt, Reservation reservation) {
+            putAll(Collections.singletonMap(key, expireAt), reservation);
+        }
+
+        /**
+         * 批量添加文件，整批只做一次统计、一次淘汰和一次日志写入，淘汰在 {@link #reserveAll(Map)} 中完成
+         * 按实际文件大小和索引中记录的旧大小计算占用，与预留的差值在这里修正；修正后仍超过限制时再淘汰
+         * @param expireAts   key到过期时间
+         * @param reservation 整批写入前的预留之和
+         */
+        private void putAll(Map<String, Long> expireAts, Reservation reservation) {
+            long currentTime = System.currentTimeMillis();
+            List<String> fileNames = new ArrayList<String>(expireAts.size());
+            List<Long> sizes = new ArrayList<Long>(expireAts.size());
+            for (String key : expireAts.keySet()) {
+                File file = newFile(key);
+                fileNames.add(relativeName(file));
+                sizes.add(calculateSize(file));
+            }
+            List<XCacheEntry> written = new ArrayList<XCacheEntry>(expireAts.size());
+            long addedSize = 0;
+            int addedCount = 0;
+            synchronized (lruEntries) {
+                int i = 0;
+                for (Map.Entry<String, Long> item : expireAts.entrySet()) {
+                    String key = item.getKey();
+                    long valueSize = sizes.get(i);
+                    XCacheEntry entry = lruEntries.get(key);
+                    if (entry == null) {
+                        String fileName = fileNames.get(i);
+                        entry = new XCacheEntry(key, fileName, valueSize, item.getValue(), currentTime);
+                        lruEntries.put(key, entry);
+                        fileOwners.put(fileName, key);
+                        addedCount++;
+                        addedSize += valueSize;
+                    } else {
+                        addedSize += valueSize - entry.size;
+                        expiryOrder.remove(entry);
+                        entry.size = valueSize;
+                        entry.expireAt = item.getValue();
+                        entry.lastAccess = currentTime;
+                    }
+                    addExpiry(entry);
+                    if (policy != null) {
+                        policy.onPut(key, valueSize);
+                    }
+                    written.add(entry);
+                    i++;
+                }
+            }
+            cacheCount.addAndGet(addedCount - reservation.slots);
+            cacheSize.addAndGet(addedSize - reservation.bytes);
+            journal.writeBatch(written, Collections.<XCacheEntry>emptyList());
+            //覆盖的旧条目在预留后被淘汰、流式写入或单条超过限制时，提交后可能超过限制
+            while (cacheCount.get() > countLimit || cacheSize.get() > sizeLimit) {
+                if (!reclaim(Reservation.NONE)) {
+                    break;
+                }
+            }
+            rebuildJournalIfNeeded();
+        }
+
+        /**
+         * 写入前预留空间：先CAS预留数量，再CAS预留大小，任何一步会超过限制时回滚，
+         * 交给唯一的回收线程淘汰出空间后重试，并发写入不会各自看到空间足够而一起超过限制
+         * 覆盖写入时只有空间不足才查询旧条目，旧条目会在提交时被替换，只预留差值
+         *
+         * @param key
+         * @param bytes 预计的文件大小，压缩后的实际大小在提交时修正
+         * @return 写入成功时交给 {@link #put(String, long, Reservation)}，失败时交给 {@link #release(Reservation)}
+         */
+        private Reservation reserve(String key, long bytes) {
+            return reserveAll(Collections.singletonMap(key, bytes));
+        }
+
+        /**
+         * 整批写入只预留一次，空间不足时也只触发一次回收，淘汰的条目合并写一次日志
+         *
+         * @param sizes key到预计的文件大小
+         * @return 整批的预留，交给 {@link #putAll(Map, Reservation)}，写入失败的key在提交时一并修正；
+         * 全部失败时交给 {@link #release(Reservation)}
+         */
+        private Reservation reserveAll(Map<String, Long> sizes) {
+            awaitInitialized();
+            long bytes = 0;
+            for (Long size : sizes.values()) {
+                bytes += size;
+            }
+            Reservation reservation = new Reservation(bytes, sizes.size());
+            if (tryReserve(reservation)) {
+                return reservation;
+            }
+            bytes = 0;
+            int slots = 0;
+            synchronized (lruEntries) {
+                for (Map.Entry<String, Long> item : sizes.entrySet()) {
+                    //移到表尾，自己的预留不会淘汰掉即将被覆盖的旧条目
+                    XCacheEntry old = lruEntries.get(item.getKey());
+                    if (old == null) {
+                        bytes += item.getValue();
+                        slots++;
+                    } else {
+                        bytes += Math.max(0, item.getValue() - old.size);
+                    }
+                }
+            }
+            reservation = new Reservation(bytes, slots);
+            while (!tryReserve(reservation)) {
+                if (!reclaim(reservation)) {
+                    //已经没有可淘汰的条目，占满限制的都是其他线程写入中的预留，直接占用，提交后再淘汰
+                    cacheCount.addAndGet(reservation.slots);
+                    cacheSize.addAndGet(reservation.bytes);
+                    break;
+                }
+            }
+            return reservation;
+        }
+
+        /**
+         * 归还写入失败的预留
+         *
+         * @param reservation
+         */
+        private void release(Reservation reservation) {
+            cacheCount.addAndGet(-reservation.slots);
+            cacheSize.addAndGet(-reservation.bytes);
+        }
+
+        private boolean tryReserve(Reservation reservation) {
+            if (reservation.slots > 0 && !tryAdd(cacheCount, reservation.slots, countLimit)) {
+                return false;
+            }
+            if (reservation.bytes > 0 && !tryAdd(cacheSize, reservation.bytes, sizeLimit)) {
+                cacheCount.addAndGet(-reservation.slots);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 单条超过限制的数据直接放行，提交后立即被淘汰
+         */
+        private boolean tryAdd(AtomicLong counter, long delta, long limit) {
+            while (true) {
+                long current = counter.get();
+                if (current + delta > limit && delta <= limit) {
+                    return false;
+                }
+                if (counter.compareAndSet(current, current + delta)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean tryAdd(AtomicInteger counter, int delta, int limit) {
+            while (true) {
+                int current = counter.get();
+                if ((long) current + delta > limit && delta <= limit) {
+                    return false;
+                }
+                if (counter.compareAndSet(current, current + delta)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 淘汰到能放下reservation为止，同一时间只有一个线程淘汰，淘汰的条目由它写日志
+         * 已有回收线程时等待它结束，之后由调用方重新尝试预留
+         *
+         * @param reservation 需要的空间，{@link Reservation#NONE} 表示淘汰到不超过限制
+         * @return false：自己负责淘汰，但已经没有可淘汰的条目
+         */
+        private boolean reclaim(Reservation reservation) {
+            if (!reclaiming.compareAndSet(false, true)) {
+                awaitReclaim();
+                return true;
+            }
+            List<XCacheEntry> evicted = new ArrayList<XCacheEntry>();
+            boolean exhausted = false;
+            beginSection("XCacheManager.evict");
+            try {
+                while (cacheCount.get() + reservation.slots > countLimit
+                        || cacheSize.get() + reservation.bytes > sizeLimit) {
+                    XCacheEntry eldest = removeNext();
+                    if (eldest == null) {
+                        exhausted = true;
+                        break;
+                    }
+                    evicted.add(eldest);
+                }
+            } finally {
+                endSection();
+                reclaiming.set(false);
+                synchronized (reclaimLock) {
+                    reclaimLock.notifyAll();
+                }
+            }
+            if (!evicted.isEmpty()) {
+                journal.writeBatch(Collections.<XCacheEntry>emptyList(), evicted);
+                rebuildJournalIfNeeded();
+            }
+            return !exhausted;
+        }
+
+        /**
+         * 等待当前的回收线程结束
+         */
+        private void awaitReclaim() {
+            boolean interrupted = false;
+            synchronized (reclaimLock) {
+                while (reclaiming.get()) {
+                    try {
+                        reclaimLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 获取文件并更新访问时间，只修改内存中的索引，不写文件
+         *
+         * @param key
+         * @return 不在索引中时返回null
+         */
+        private File get(String key) {
+            awaitInitialized();
+            long currentTime = System.currentTimeMillis();
+            XCacheEntry entry;
+            //访问顺序的LinkedHashMap在get时会把该条目移到表尾
+            synchronized (lruEntries) {
+                entry = lruEntries.get(key);
+                if (entry != null) {
+                    entry.lastAccess = currentTime;
+                    touch(entry);
+                    if (policy != null) {
+                        policy.onAccess(key);
+                    }
+                }
+            }
+            if (entry == null){
+                return null;
+            }
+            return new File(cacheDir, entry.fileName);
+        }
+
+        /**
+         * 批量获取文件并更新访问时间，只修改内存中的索引，不写文件
+         *
+         * @param keys
+         * @return 在索引中的key到文件，按文件路径排序，同一个分片目录的文件相邻
+         */
+        private Map<String, File> getAll(Collection<String> keys) {
+            awaitInitialized();
+            long currentTime = System.currentTimeMillis();
+            List<XCacheEntry> entries = new ArrayList<XCacheEntry>(keys.size());
+            synchronized (lruEntries) {
+                for (String key : keys) {
+                    XCacheEntry entry = lruEntries.get(key);
+                    if (entry != null) {
+                        entry.lastAccess = currentTime;
+                        touch(entry);
+                        if (policy != null) {
+                            policy.onAccess(key);
+                        }
+                        entries.add(entry);
+                    }
+                }
+            }
+            Collections.sort(entries, FILE_NAME_ORDER);
+            Map<String, File> files = new LinkedHashMap<String, File>();
+            for (XCacheEntry entry : entries) {
+                files.put(entry.key, new File(cacheDir, entry.fileName));
+            }
+            return files;
+        }
+
+        /**
+         * 获取key对应的文件，不存在时分配一个新文件
+         * 文件名取key的MD5，前两位作为分片子目录，避免单个目录下文件过多，也避免key中的非法字符；
+         * hash冲突时依次追加 .1 .2 后缀，key本身记录在索引中
+         * @param key
+         * @return
+         */
+        private File newFile(String key) {
+            awaitInitialized();
+            String fileName;
+            synchronized (lruEntries) {
+                XCacheEntry entry = lruEntries.get(key);
+                fileName = entry != null ? entry.fileName : allocateFileName(fileOwners, key);
+            }
+            File file = new File(cacheDir, fileName);
+            File shardDir = file.getParentFile();
+            if (!shardDir.exists() && !shardDir.mkdirs()) {
+                throw new RuntimeException("can't make dirs in " + shardDir.getAbsolutePath());
+            }
+            return file;
+        }
+
+        /**
+         * 分配文件名，并在owners中占位
+         *
+         * @param owners 文件名到key的反查表
+         * @param key
+         * @return 相对缓存目录的路径
+         */
+        private String allocateFileName(Map<String, String> owners, String key) {
+            String hash = hashKey(key);
+            String base = hash.substring(0, 2) + File.separator + hash;
+            for (int i = 0; ; i++) {
+                String fileName = i == 0 ? base : base + "." + i;
+                String owner = owners.get(fileName);
+                if (owner == null) {
+                    owners.put(fileName, key);
+                    return fileName;
+                }
+                if (owner.equals(key)) {
+                    return fileName;
+                }
+            }
+        }
+
+        private String hashKey(String key) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+                char[] hex = new char[bytes.length * 2];
+                for (int i = 0; i < bytes.length; i++) {
+                    hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+                    hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+                }
+                return new String(hex);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private String relativeName(File file) {
+            return file.getParentFile().getName() + File.separator + file.getName();
+        }
+
+        /**
+         * 删除指定内容
+         *
+         * @param key
+         */
+        private void remove(String key) {
+            awaitInitialized();
+            XCacheEntry entry;
+            //谁从索引中摘除了该条目，谁负责扣减大小和数量，避免与removeNext并发时重复扣减
+            synchronized (lruEntries) {
+                entry = lruEntries.remove(key);
+                if (entry != null) {
+                    fileOwners.remove(entry.fileName);
+                    expiryOrder.remove(entry);
+                    if (policy != null) {
+                        policy.onRemove(key);
+                    }
+                }
+            }
+            if (entry != null) {
+                new File(cacheDir, entry.fileName).delete();
+                cacheSize.addAndGet(-entry.size);
+                cacheCount.addAndGet(-1);
+                journal.writeRemove(key);
+                rebuildJournalIfNeeded();
+            }
+        }
+
+        /**
+         * 批量删除，只写一次日志
+         *
+         * @param keys
+         * @return key到是否存在并被删除
+         */
+        private Map<String, Boolean> removeAll(Collection<String> keys) {
+            awaitInitialized();
+            Map<String, Boolean> results = new LinkedHashMap<String, Boolean>();
+            List<XCacheEntry> removed = new ArrayList<XCacheEntry>(keys.size());
+            synchronized (lruEntries) {
+                for (String key : keys) {
+                    XCacheEntry entry = lruEntries.remove(key);
+                    results.put(key, entry != null);
+                    if (entry != null) {
+                        fileOwners.remove(entry.fileName);
+                        expiryOrder.remove(entry);
+                        if (policy != null) {
+                            policy.onRemove(key);
+                        }
+                        removed.add(entry);
+                    }
+                }
+            }
+            long freedSize = 0;
+            for (XCacheEntry entry : removed) {
+                new File(cacheDir, entry.fileName).delete();
+                freedSize += entry.size;
+            }
+            cacheSize.addAndGet(-freedSize);
+            cacheCount.addAndGet(-removed.size());
+            journal.writeBatch(Collections.<XCacheEntry>emptyList(), removed);
+            rebuildJournalIfNeeded();
+            return results;
+        }
+
+        /**
+         * 清理缓存
+         */
+        private void clear() {
+            awaitInitialized();
+            synchronized (journal) {
+                long clearedSize = 0;
+                int clearedCount;
+                synchronized (lruEntries) {
+                    for (XCacheEntry entry : lruEntries.values()) {
+                        clearedSize += entry.size;
+                    }
+                    clearedCount = lruEntries.size();
+                    lruEntries.clear();
+                    fileOwners.clear();
+                    expiryOrder.clear();
+                    touched.clear();
+                    nextSweepAt = 0;
+                    if (policy != null) {
+                        policy.clear();
+                    }
+                }
+                //只扣减已提交的条目，写入中的预留由写入方提交或归还
+                cacheSize.addAndGet(-clearedSize);
+                cacheCount.addAndGet(-clearedCount);
+                File[] files = cacheDir.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        if (XCachePack.isPackDir(f)) {
+                            continue;
+                        }
+                        if (f.isDirectory()) {
+                            deleteContents(f);
+                        } else if (!XCacheJournal.isJournalFile(f)) {
+                            f.delete();
+                        }
+                    }
+                }
+                journal.rebuild(Collections.<XCacheEntry>emptyList());
+            }
+        }
+
+        private void deleteContents(File dir) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+        }
+
+        /**
+         * 移除旧的文件
+         * 过期索引的表头已经过期时优先淘汰它，否则由淘汰策略选出，没有淘汰策略时取LRU索引的表头，
+         * 选中的条目要先拿到它的 {@link #keyLock(String)}，拿不到说明同一个key正在写入或删除，跳过换下一条；
+         * 选择、加锁和摘除在同一次lruEntries锁内完成，文件删除在lruEntries锁外、key锁内进行，
+         * 并发写入不会在删除前rename出新文件又被这里删掉
+         *
+         * @return 被淘汰的条目，索引为空或所有条目都在写入中时返回null
+         */
+        private XCacheEntry removeNext() {
+            XCacheEntry eldest = null;
+            boolean expired = false;
+            ReentrantLock lock = null;
+            synchronized (lruEntries) {
+                XCacheEntry soonest = expiryOrder.isEmpty() ? null : expiryOrder.first();
+                if (soonest != null && System.currentTimeMillis() > soonest.expireAt) {
+                    lock = keyLock(soonest.key);
+                    if (lock.tryLock()) {
+                        eldest = soonest;
+                        expired = true;
+                        lruEntries.remove(eldest.key);
+                        if (policy != null) {
+                            policy.onRemove(eldest.key);
+                        }
+                    }
+                }
+                if (eldest == null && policy != null) {
+                    List<XCacheEntry> busy = null;
+                    while (eldest == null) {
+                        String key = policy.evict();
+                        if (key == null) {
+                            break;
+                        }
+                        XCacheEntry candidate = lruEntries.get(key);
+                        if (candidate == null) {
+                            continue;
+                        }
+                        lock = keyLock(key);
+                        if (lock.tryLock()) {
+                            eldest = lruEntries.remove(key);
+                        } else {
+                            if (busy == null) {
+                                busy = new ArrayList<XCacheEntry>();
+                            }
+                            busy.add(candidate);
+                        }
+                    }
+                    //evict已经把跳过的条目从策略中移除，按相反顺序放回原来的位置
+                    if (busy != null) {
+                        for (int i = busy.size() - 1; i >= 0; i--) {
+                            policy.restore(busy.get(i).key);
+                        }
+                    }
+                } else if (eldest == null) {
+                    Iterator<XCacheEntry> iterator = lruEntries.values().iterator();
+                    while (iterator.hasNext()) {
+                        XCacheEntry candidate = iterator.next();
+                        lock = keyLock(candidate.key);
+                        if (lock.tryLock()) {
+                            eldest = candidate;
+                            iterator.remove();
+                            break;
+                        }
+                    }
+                }
+                if (eldest == null) {
+                    return null;
+                }
+                expiryOrder.remove(eldest);
+                fileOwners.remove(eldest.fileName);
+            }
+            long start = System.nanoTime();
+            try {
+                new File(cacheDir, eldest.fileName).delete();
+                if (mMemory != null) {
+                    mMemory.remove(eldest.key);
+                }
+                invalidate(eldest.key);
+            } finally {
+                lock.unlock();
+            }
+            cacheSize.addAndGet(-eldest.size);
+            cacheCount.addAndGet(-1);
+            recordRemoval(expired ? Event.EXPIRE : Event.EVICT, eldest.key, eldest.size,
+                    expired ? 0 : System.nanoTime() - start);
+            return eldest;
+        }
+
+        /**
+         * 会过期的条目加入过期索引，并保证在它过期后安排一次清理，调用方需持有lruEntries的锁
+         *
+         * @param entry
+         */
+        private void addExpiry(XCacheEntry entry) {
+            if (entry.expireAt == XCacheEntry.NEVER_EXPIRE) {
+                return;
+            }
+            expiryOrder.add(entry);
+            if (nextSweepAt != 0 && nextSweepAt <= entry.expireAt) {
+                return;
+            }
+            nextSweepAt = entry.expireAt;
+            long delay = Math.max(0, entry.expireAt + 1 - System.currentTimeMillis());
+            sweeper.schedule(sweepTask, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 删除过期条目，每批最多 {@link #SWEEP_BATCH} 条，还有剩余时立即安排下一批，否则按下一个过期时间安排
+         * 逐条持有 {@link #keyLock(String)} 后重新确认仍已过期，避免删除刚被重新写入的数据
+         */
+        private void sweep() {
+            List<XCacheEntry> candidates = new ArrayList<XCacheEntry>();
+            long now = System.currentTimeMillis();
+            synchronized (lruEntries) {
+                nextSweepAt = 0;
+                for (XCacheEntry entry : expiryOrder) {
+                    if (now <= entry.expireAt || candidates.size() >= SWEEP_BATCH) {
+                        break;
+                    }
+                    candidates.add(entry);
+                }
+            }
+            List<XCacheEntry> expired = new ArrayList<XCacheEntry>(candidates.size());
+            for (XCacheEntry candidate : candidates) {
+                ReentrantLock lock = keyLock(candidate.key);
+                lock.lock();
+                try {
+                    synchronized (lruEntries) {
+                        //ceiling按排序查找，不会像lruEntries.get那样改变访问顺序；被删除或被同序的新条目替换时返回的不是candidate
+                        if (expiryOrder.ceiling(candidate) != candidate || now <= candidate.expireAt) {
+                            continue;
+                        }
+                        lruEntries.remove(candidate.key);
+                        expiryOrder.remove(candidate);
+                        if (policy != null) {
+                            policy.onRemove(candidate.key);
+                        }
+                        fileOwners.remove(candidate.fileName);
+                    }
+                    new File(cacheDir, candidate.fileName).delete();
+                    if (mMemory != null) {
+                        mMemory.remove(candidate.key);
+                    }
+                    invalidate(candidate.key);
+                } finally {
+                    lock.unlock();
+                }
+                cacheSize.addAndGet(-candidate.size);
+                cacheCount.addAndGet(-1);
+                recordRemoval(Event.EXPIRE, candidate.key, candidate.size, 0);
+                expired.add(candidate);
+            }
+            if (!expired.isEmpty()) {
+                journal.writeBatch(Collections.<XCacheEntry>emptyList(), expired);
+                rebuildJournalIfNeeded();
+            }
+            synchronized (lruEntries) {
+                if (!expiryOrder.isEmpty() && nextSweepAt == 0) {
+                    XCacheEntry soonest = expiryOrder.first();
+                    nextSweepAt = soonest.expireAt;
+                    long delay = Math.max(0, soonest.expireAt + 1 - System.currentTimeMillis());
+                    sweeper.schedule(sweepTask, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        /**
+         * 记录一次读取，第一条未写入的访问出现时安排一次延迟写入，调用方需持有lruEntries的锁
+         *
+         * @param entry
+         */
+        private void touch(XCacheEntry entry) {
+            //先移除再加入，保证顺序是最后一次访问的顺序
+            if (!touched.remove(entry) && touched.isEmpty()) {
+                sweeper.schedule(flushRecencyTask, RECENCY_FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+            touched.add(entry);
+        }
+
+        /**
+         * 把上次写入后的读取批量写入日志，每个条目只写最后一次访问
+         * 期间已被删除的条目不再写入，日志恢复时按记录顺序重放即可还原LRU顺序
+         */
+        private void flushRecency() {
+            awaitInitialized();
+            List<XCacheEntry> entries;
+            synchronized (lruEntries) {
+                if (touched.isEmpty()) {
+                    return;
+                }
+                entries = new ArrayList<XCacheEntry>(touched.size());
+                for (XCacheEntry entry : touched) {
+                    //containsKey不会改变访问顺序
+                    if (lruEntries.containsKey(entry.key)) {
+                        entries.add(entry);
+                    }
+                }
+                touched.clear();
+            }
+            journal.writeReads(entries);
+            rebuildJournalIfNeeded();
+        }
+
+        /**
+         * 写入访问顺序，等待后台的日志压缩完成后关闭日志
+         */
+        private void close() {
+            flushRecency();
+            //还没到时间的清理和访问顺序写入不再执行，正在执行的等它完成
+            sweeper.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            XCacheUtils.shutdown(sweeper);
+            XCacheUtils.shutdown(executor);
+            journal.close();
+        }
+
+        /**
+         * 冗余记录过多时在后台压缩日志
+         */
+        private void rebuildJournalIfNeeded() {
+            int entryCount;
+            synchronized (lruEntries) {
+                entryCount = lruEntries.size();
+            }
+            if (journal.needsRebuild(entryCount)) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //先持有日志锁再取快照，保证快照之后的追加都写进新日志
+                        synchronized (journal) {
+                            List<XCacheEntry> snapshot;
+                            synchronized (lruEntries) {
+                                if (!journal.needsRebuild(lruEntries.size())) {
+                                    return;
+                                }
+                                snapshot = new ArrayList<XCacheEntry>(lruEntries.values());
+                            }
+                            journal.rebuild(snapshot);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * 文件大小
+         *
+         * @param file
+         * @return
+         */
+        private long calculateSize(File file) {
+            return file.length();
+        }
+    }
+
+    /**
+     * 时间计算工具类
+     *
+     * @author xurunjie
+     * @description
+     * @date 2017/09/26
+     */
+    static class XCacheUtils {
+        /**
+         * 计算绝对过期时间
+         *
+         * @param second 保存的时间，单位：秒
+         * @return 过期时间，不过期时返回 {@link XCacheEntry#NEVER_EXPIRE}
+         */
+        static long expireAt(int second) {
+            if (second > 0) {
+                return System.currentTimeMillis() + second * 1000L;
+            }
+            return XCacheEntry.NEVER_EXPIRE;
+        }
+
+        /**
+         * 停止接收新任务，并等待已提交的任务执行完
+         *
+         * @param executor
+         */
+        static void shutdown(ExecutorService executor) {
+            executor.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 判断旧版格式缓存的byte数据是否到期
+         *
+         * @param data
+         * @return true：到期了 false：还没有到期
+         */
+        private static boolean isDue(byte[] data) {
+            long expireAt = legacyExpireAt(data);
+            return expireAt != XCacheEntry.NEVER_EXPIRE && System.currentTimeMillis() > expireAt;
+        }
+
+        /**
+         * 解析旧版格式的过期时间
+         *
+         * @param data
+         * @return 过期时间，没有时间前缀时返回 {@link XCacheEntry#NEVER_EXPIRE}
+         */
+        private static long legacyExpireAt(byte[] data) {
+            String[] strs = getDateInfoFromDate(data);
+            if (strs != null && strs.length == 2) {
+                String saveTimeStr = strs[0];
+                while (saveTimeStr.startsWith("0")) {
+                    saveTimeStr = saveTimeStr.substring(1, saveTimeStr.length());
+                }
+                long saveTime = Long.valueOf(saveTimeStr);
+                long deleteAfter = Long.valueOf(strs[1]);
+                return saveTime + deleteAfter * 1000;
+            }
+            return XCacheEntry.NEVER_EXPIRE;
+        }
+
+        /**
+         * 去掉旧版格式的时间前缀
+         *
+         * @param data
+         * @return
+         */
+        private static byte[] clearDateInfo(byte[] data) {
+            if (hasDateInfo(data)) {
+                return copyOfRange(data, indexOf(data, M_SEPARATOR) + 1, data.length);
+            }
+            return data;
+        }
+
+        private static boolean hasDateInfo(byte[] data) {
+            return data != null && data.length > 15 && data[13] == '-' && indexOf(data, M_SEPARATOR) > 14;
+        }
+
+        private static String[] getDateInfoFromDate(byte[] data) {
+            if (hasDateInfo(data)) {
+                String saveDate = new String(copyOfRange(data, 0, 13));
+                String deleteAfter = new String(copyOfRange(data, 14, indexOf(data, M_SEPARATOR)));
+                return new String[] {saveDate, deleteAfter};
+            }
+            return null;
+        }
+
+        private static int indexOf(byte[] data, char c) {
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static byte[] copyOfRange(byte[] original, int from, int to) {
+            int newLength = to - from;
+            if (newLength < 0) {
+                throw new IllegalArgumentException(from + " > " + to);
+            }
+            byte[] copy = new byte[newLength];
+            System.arraycopy(original, from, copy, 0, Math.min(original.length - from, newLength));
+            return copy;
+        }
+
+        private static final char M_SEPARATOR = ' ';
+
+    }
+}
+
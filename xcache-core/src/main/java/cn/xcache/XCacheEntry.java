@@ -0,0 +1,47 @@
+package cn.xcache;
+
+/**
+ * @description 缓存索引中的一条记录，记录key、文件路径、占用大小、过期时间和最后访问时间
+ */
+final class XCacheEntry {
+    /**
+     * 不过期
+     */
+    static final long NEVER_EXPIRE = 0;
+
+    final String key;
+    /**
+     * 相对缓存目录的文件路径
+     */
+    final String fileName;
+    /**
+     * 磁盘占用，单位字节
+     */
+    long size;
+    /**
+     * 绝对过期时间，单位毫秒，{@link #NEVER_EXPIRE} 表示不过期
+     */
+    long expireAt;
+    /**
+     * 最后访问时间，单位毫秒
+     */
+    long lastAccess;
+
+    XCacheEntry(String key, String fileName, long size, long expireAt, long lastAccess) {
+        this.key = key;
+        this.fileName = fileName;
+        this.size = size;
+        this.expireAt = expireAt;
+        this.lastAccess = lastAccess;
+    }
+
+    /**
+     * 是否已经过期
+     *
+     * @param now 当前时间
+     * @return true：到期了 false：还没有到期
+     */
+    boolean isExpired(long now) {
+        return expireAt != NEVER_EXPIRE && now > expireAt;
+    }
+}
@@ -0,0 +1,54 @@
+package cn.xcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description 按采样率把单条操作的事件分发给 {@link XCacheCore.Listener}
+ * 采样按操作次数均匀抽取，每 1/sampleRate 次操作抽取一次，不依赖随机数，结果可以复现
+ * 监听器抛出的异常只打印，不影响缓存本身的读写
+ */
+final class XCacheEvents {
+    private final XCacheCore.Listener listener;
+    private final long interval;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param listener
+     * @param sampleRate 采样率，(0, 1]
+     */
+    XCacheEvents(XCacheCore.Listener listener, float sampleRate) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sampleRate must be in (0, 1]");
+        }
+        this.listener = listener;
+        this.interval = Math.max(1, Math.round(1 / (double) sampleRate));
+    }
+
+    /**
+     * 本次操作是否需要上报，在操作开始前调用，未抽中的操作不计时
+     *
+     * @return
+     */
+    boolean sample() {
+        return interval == 1 || sequence.getAndIncrement() % interval == 0;
+    }
+
+    /**
+     * 上报一次被抽中的操作
+     *
+     * @param event
+     * @param key
+     * @param size          数据大小，单位字节，未知时为-1
+     * @param durationNanos 耗时，单位纳秒
+     */
+    void dispatch(XCacheCore.Event event, String key, long size, long durationNanos) {
+        try {
+            listener.onEvent(event, key, size, durationNanos);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cn.xcache;
+
+/**
+ * @description TinyLFU使用的访问频率估计，Count-Min Sketch，每个计数器4位，一个long保存16个
+ * 每个key映射到同一个long中的4个计数器，分别位于long的4个16位段中，取最小值作为频率，最大15
+ * 累计记录的次数达到容量的10倍时所有计数器减半，让旧的热点逐渐冷却
+ *
+ * 不是线程安全的，由调用方加锁
+ */
+final class XCacheFrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int[] SEEDS = {0x97cb3127, 0xb3a2a6bd, 0xb0a2bdb1, 0x5bd1e995};
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private long[] table = new long[0];
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * 按预计的条目数调整大小，只会变大，变大时丢弃已有的计数
+     *
+     * @param maximum 预计的条目数
+     */
+    void ensureCapacity(int maximum) {
+        int capacity = Math.min(Math.max(maximum, 16), MAX_CAPACITY);
+        if (table.length >= capacity) {
+            return;
+        }
+        table = new long[tableSizeFor(capacity)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * capacity;
+        size = 0;
+    }
+
+    /**
+     * 估计的访问频率
+     *
+     * @param key
+     * @return 0-15
+     */
+    int frequency(String key) {
+        if (table.length == 0) {
+            return 0;
+        }
+        int hash = spread(key.hashCode());
+        int index = indexOf(hash);
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            frequency = Math.min(frequency, (int) ((table[index] >>> offsetOf(hash, i)) & 0xf));
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key
+     */
+    void increment(String key) {
+        if (table.length == 0) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        int index = indexOf(hash);
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int offset = offsetOf(hash, i);
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * 所有计数器减半，奇数计数器的舍入误差按个数补回到size中
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash) {
+        return (hash * SEEDS[hash & 3] >>> 8) & tableMask;
+    }
+
+    /**
+     * 第i个计数器在long中的位置：long按16位分成4段，每段取一个计数器，保证4个计数器互不相同
+     */
+    private static int offsetOf(int hash, int i) {
+        int h = hash * SEEDS[i];
+        h += h >>> 16;
+        return (i << 4) + ((h & 3) << 2);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = 1;
+        while (n < capacity) {
+            n <<= 1;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,190 @@
+package cn.xcache;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @description 缓存文件的二进制头部，替代旧版 "13位时间戳-秒数 " 的ASCII前缀
+ *
+ * 文件格式：
+ * magic(int) version(byte) flags(byte) keyLength(short) expireAt(long) payloadLength(long) key(UTF-8) payload
+ * 固定部分共 {@link #SIZE} 字节，读取一次即可判断是否过期，过期时不需要读取数据部分
+ */
+final class XCacheHeader {
+    /**
+     * 首字节不是ASCII，不会和旧版的时间戳前缀混淆
+     */
+    static final int MAGIC = 0xCAC4E001;
+    static final byte VERSION = 1;
+    /**
+     * 固定部分的长度
+     */
+    static final int SIZE = 24;
+    /**
+     * payloadLength在文件中的偏移，流式写入结束后回填
+     */
+    static final int PAYLOAD_LENGTH_OFFSET = 16;
+    /**
+     * 流式写入时payloadLength的占位值
+     */
+    static final long UNKNOWN_LENGTH = -1;
+    /**
+     * key的最大字节数
+     */
+    static final int MAX_KEY_LENGTH = 0xffff;
+
+    /**
+     * 数据是UTF-8编码的String，见 {@link XCacheStringCodec}
+     */
+    static final int FLAG_UTF8_STRING = 1;
+    /**
+     * 数据部分经过 {@link XCacheCore.Codec} 压缩
+     */
+    static final int FLAG_COMPRESSED = 2;
+    /**
+     * 数据是带格式的bitmap，格式见Android模块的XCache.BitmapFormat
+     */
+    static final int FLAG_BITMAP = 4;
+    /**
+     * 删除记录，没有数据部分，只出现在 {@link XCachePack} 的段文件中
+     */
+    static final int FLAG_TOMBSTONE = 0x80;
+
+    private static final String UTF_8 = "UTF-8";
+
+    final int flags;
+    final long expireAt;
+    final long payloadLength;
+    final int keyLength;
+    /**
+     * 只有读取时要求读key才有值
+     */
+    final String key;
+
+    private XCacheHeader(int flags, long expireAt, long payloadLength, int keyLength, String key) {
+        this.flags = flags;
+        this.expireAt = expireAt;
+        this.payloadLength = payloadLength;
+        this.keyLength = keyLength;
+        this.key = key;
+    }
+
+    /**
+     * 数据部分在文件中的偏移
+     *
+     * @return
+     */
+    long payloadOffset() {
+        return SIZE + keyLength;
+    }
+
+    /**
+     * 是否已经过期
+     *
+     * @param now 当前时间
+     * @return true：到期了 false：还没有到期
+     */
+    boolean isExpired(long now) {
+        return expireAt != XCacheEntry.NEVER_EXPIRE && now > expireAt;
+    }
+
+    /**
+     * 编码头部和key
+     *
+     * @param key
+     * @param flags
+     * @param expireAt      过期时间，{@link XCacheEntry#NEVER_EXPIRE} 表示不过期
+     * @param payloadLength 数据长度
+     * @return
+     */
+    static byte[] encode(String key, int flags, long expireAt, long payloadLength) {
+        byte[] keyBytes = keyBytes(key);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE + keyBytes.length);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) flags);
+        buffer.putShort((short) keyBytes.length);
+        buffer.putLong(expireAt);
+        buffer.putLong(payloadLength);
+        buffer.put(keyBytes);
+        return buffer.array();
+    }
+
+    /**
+     * 缓存文件的大小
+     *
+     * @param key
+     * @param payloadLength 数据长度
+     * @return 头部 + key + 数据的字节数
+     */
+    static long fileLength(String key, long payloadLength) {
+        try {
+            return SIZE + key.getBytes(UTF_8).length + payloadLength;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 从文件头部读取，调用后读取位置停在固定部分之后（readKey时停在数据部分开头）
+     *
+     * @param in
+     * @param readKey 是否读取key，只有遍历目录恢复索引时需要
+     * @return 不是新格式（旧版文件或文件过短）时返回null
+     * @throws IOException
+     */
+    static XCacheHeader read(DataInput in, boolean readKey) throws IOException {
+        byte[] fixed = new byte[SIZE];
+        try {
+            in.readFully(fixed);
+        } catch (EOFException e) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(fixed);
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            return null;
+        }
+        int flags = buffer.get() & 0xff;
+        int keyLength = buffer.getShort() & 0xffff;
+        long expireAt = buffer.getLong();
+        long payloadLength = buffer.getLong();
+        String key = null;
+        if (readKey) {
+            byte[] keyBytes = new byte[keyLength];
+            in.readFully(keyBytes);
+            key = new String(keyBytes, UTF_8);
+        }
+        return new XCacheHeader(flags, expireAt, payloadLength, keyLength, key);
+    }
+
+    /**
+     * 回填数据长度
+     *
+     * @param channel       缓存文件的channel
+     * @param payloadLength 数据长度
+     * @throws IOException
+     */
+    static void writePayloadLength(FileChannel channel, long payloadLength) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, payloadLength);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, PAYLOAD_LENGTH_OFFSET + buffer.position());
+        }
+    }
+
+    private static byte[] keyBytes(String key) {
+        try {
+            byte[] bytes = key.getBytes(UTF_8);
+            if (bytes.length > MAX_KEY_LENGTH) {
+                throw new IllegalArgumentException("key is too long: " + bytes.length + " bytes");
+            }
+            return bytes;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package cn.xcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @description 只追加写的缓存日志，参考DiskLruCache的journal
+ * 启动时顺序读取一次即可恢复索引，不需要遍历目录和逐个stat文件
+ *
+ * 文件格式：
+ * 头部：MAGIC(UTF) VERSION(int)
+ * 记录：op(byte) key(int长度 + UTF-8字节) [参数]
+ *   PUT    fileName(UTF) size(long) expireAt(long) lastAccess(long)
+ *   READ   lastAccess(long)
+ *   REMOVE 无参数
+ */
+final class XCacheJournal {
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+
+    private static final String MAGIC = "cn.xcache.journal";
+    private static final int VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_READ = 2;
+    private static final byte OP_REMOVE = 3;
+
+    /**
+     * 冗余记录超过该值且多于有效条目时压缩日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final String UTF_8 = "UTF-8";
+
+    /**
+     * key的最大字节数，超过说明日志已损坏
+     */
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+
+    private final File journalFile;
+    private final File journalFileTmp;
+    private DataOutputStream writer;
+    private int redundantOpCount;
+
+    XCacheJournal(File directory) {
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
+    }
+
+    /**
+     * 是否是日志自身的文件，遍历缓存目录时需要跳过
+     *
+     * @param file
+     * @return
+     */
+    static boolean isJournalFile(File file) {
+        String name = file.getName();
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TEMP.equals(name);
+    }
+
+    /**
+     * 顺序读取日志并恢复索引，恢复的顺序即访问顺序
+     * 末尾不完整的记录（写入时被杀进程）会被丢弃，并在之后重写日志；空文件和不完整的头部按损坏处理
+     *
+     * @param entries 恢复到的索引
+     * @return false：日志不存在或已损坏，需要遍历目录重建
+     */
+    synchronized boolean replay(Map<String, XCacheEntry> entries) {
+        if (!journalFile.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        int opCount = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 8192));
+            try {
+                if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                    return false;
+                }
+            } catch (EOFException e) {
+                //头部都没有写完，无法确认是日志，交给目录遍历
+                return false;
+            }
+            while (true) {
+                int op = in.read();
+                if (op == -1) {
+                    break;
+                }
+                String key = readKey(in);
+                switch (op) {
+                    case OP_PUT:
+                        String fileName = in.readUTF();
+                        long size = in.readLong();
+                        long expireAt = in.readLong();
+                        long lastAccess = in.readLong();
+                        entries.put(key, new XCacheEntry(key, fileName, size, expireAt, lastAccess));
+                        break;
+                    case OP_READ:
+                        long readAccess = in.readLong();
+                        XCacheEntry entry = entries.get(key);
+                        if (entry != null) {
+                            entry.lastAccess = readAccess;
+                        }
+                        break;
+                    case OP_REMOVE:
+                        entries.remove(key);
+                        break;
+                    default:
+                        entries.clear();
+                        return false;
+                }
+                opCount++;
+            }
+            redundantOpCount = opCount - entries.size();
+        } catch (EOFException e) {
+            //末尾记录不完整，前面的记录依然有效，强制压缩一次把尾巴去掉
+            redundantOpCount = Integer.MAX_VALUE / 2;
+        } catch (IOException e) {
+            e.printStackTrace();
+            entries.clear();
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+        return true;
+    }
+
+    synchronized void writeRemove(String key) {
+        try {
+            DataOutputStream out = writer();
+            appendRemove(out, key);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 批量写入访问记录，只flush一次
+     *
+     * @param entries
+     */
+    synchronized void writeReads(Collection<XCacheEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            DataOutputStream out = writer();
+            for (XCacheEntry entry : entries) {
+                out.writeByte(OP_READ);
+                writeKey(out, entry.key);
+                out.writeLong(entry.lastAccess);
+                redundantOpCount++;
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 批量写入新增和删除记录，只flush一次
+     *
+     * @param puts    新增或更新的条目
+     * @param removes 删除的条目
+     */
+    synchronized void writeBatch(Collection<XCacheEntry> puts, Collection<XCacheEntry> removes) {
+        if (puts.isEmpty() && removes.isEmpty()) {
+            return;
+        }
+        try {
+            DataOutputStream out = writer();
+            for (XCacheEntry entry : puts) {
+                appendPut(out, entry);
+                redundantOpCount++;
+            }
+            for (XCacheEntry entry : removes) {
+                appendRemove(out, entry.key);
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void appendPut(DataOutputStream out, XCacheEntry entry) throws IOException {
+        out.writeByte(OP_PUT);
+        writeKey(out, entry.key);
+        out.writeUTF(entry.fileName);
+        out.writeLong(entry.size);
+        out.writeLong(entry.expireAt);
+        out.writeLong(entry.lastAccess);
+    }
+
+    private void appendRemove(DataOutputStream out, String key) throws IOException {
+        out.writeByte(OP_REMOVE);
+        writeKey(out, key);
+        redundantOpCount += 2;
+    }
+
+    /**
+     * 是否需要压缩
+     *
+     * @param entryCount 当前有效条目数
+     * @return
+     */
+    synchronized boolean needsRebuild(int entryCount) {
+        return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entryCount;
+    }
+
+    /**
+     * 用当前索引重写日志：先写临时文件，再原子替换
+     *
+     * @param entries 按访问顺序排列的有效条目
+     */
+    synchronized void rebuild(Collection<XCacheEntry> entries) {
+        closeQuietly(writer);
+        writer = null;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFileTmp), 8192));
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            for (XCacheEntry entry : entries) {
+                appendPut(out, entry);
+            }
+            out.flush();
+            out.close();
+            out = null;
+            if (!journalFileTmp.renameTo(journalFile)) {
+                throw new IOException("can't rename " + journalFileTmp + " to " + journalFile);
+            }
+            redundantOpCount = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(out);
+            journalFileTmp.delete();
+            //重写失败时旧日志可能已不完整，删掉让下次启动走目录遍历
+            journalFile.delete();
+        }
+    }
+
+    /**
+     * 关闭追加写入的文件
+     */
+    synchronized void close() {
+        closeQuietly(writer);
+        writer = null;
+    }
+
+    private DataOutputStream writer() throws IOException {
+        if (writer == null) {
+            boolean isNew = !journalFile.exists() || journalFile.length() == 0;
+            writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true), 1024));
+            if (isNew) {
+                writer.writeUTF(MAGIC);
+                writer.writeInt(VERSION);
+            }
+        }
+        return writer;
+    }
+
+    private static void writeKey(DataOutputStream out, String key) throws IOException {
+        byte[] bytes = key.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readKey(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_KEY_LENGTH) {
+            throw new IOException("bad key length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cn.xcache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description 热点缓存文件的内存映射，按映射的字节数限制大小，LRU淘汰
+ * 保存的是数据部分的只读视图，读取时返回duplicate，调用方之间互不影响读取位置
+ *
+ * 缓存文件只会被rename整体替换或删除，不会原地修改或截断，
+ * 所以被淘汰、删除或覆盖后，调用方手里的旧视图仍然可以安全读取，映射区域在视图被回收后释放
+ */
+final class XCacheMapped {
+
+    private static final class Region {
+        final long expireAt;
+        final ByteBuffer buffer;
+
+        Region(long expireAt, ByteBuffer buffer) {
+            this.expireAt = expireAt;
+            this.buffer = buffer;
+        }
+    }
+
+    private final LinkedHashMap<String, Region> map = new LinkedHashMap<String, Region>(16, 0.75f, true);
+    private final long maxSize;
+    private long size;
+
+    /**
+     * @param maxSize 映射区域的总大小上限，单位字节
+     */
+    XCacheMapped(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 读取
+     *
+     * @param key
+     * @param now 当前时间
+     * @return 只读视图，不存在或已过期时返回null
+     */
+    synchronized ByteBuffer get(String key, long now) {
+        Region region = map.get(key);
+        if (region == null) {
+            return null;
+        }
+        if (region.expireAt != XCacheEntry.NEVER_EXPIRE && now > region.expireAt) {
+            map.remove(key);
+            size -= region.buffer.capacity();
+            return null;
+        }
+        return region.buffer.duplicate();
+    }
+
+    /**
+     * 写入，单个超过上限四分之一的区域不保留
+     *
+     * @param key
+     * @param expireAt 过期时间
+     * @param buffer   只读视图
+     */
+    synchronized void put(String key, long expireAt, ByteBuffer buffer) {
+        remove(key);
+        if (buffer.capacity() > maxSize / 4) {
+            return;
+        }
+        map.put(key, new Region(expireAt, buffer));
+        size += buffer.capacity();
+        trimToSize(maxSize);
+    }
+
+    synchronized void remove(String key) {
+        Region previous = map.remove(key);
+        if (previous != null) {
+            size -= previous.buffer.capacity();
+        }
+    }
+
+    synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * 淘汰最久未使用的区域直到不超过maxSize
+     *
+     * @param maxSize
+     */
+    synchronized void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Region>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().buffer.capacity();
+            iterator.remove();
+        }
+    }
+}
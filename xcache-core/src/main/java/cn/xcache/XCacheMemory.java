@@ -0,0 +1,107 @@
+package cn.xcache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description 磁盘缓存前的内存缓存，按字节数限制大小，LRU淘汰
+ * 保存的是写入磁盘的数据部分和头部标记，过期时间和磁盘上的条目一致
+ */
+final class XCacheMemory {
+
+    static final class Value {
+        final int flags;
+        final long expireAt;
+        final byte[] data;
+
+        Value(int flags, long expireAt, byte[] data) {
+            this.flags = flags;
+            this.expireAt = expireAt;
+            this.data = data;
+        }
+    }
+
+    private final LinkedHashMap<String, Value> map = new LinkedHashMap<String, Value>(16, 0.75f, true);
+    private final long maxSize;
+    private long size;
+
+    /**
+     * @param maxSize 内存上限，单位字节
+     */
+    XCacheMemory(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 读取
+     *
+     * @param key
+     * @param now 当前时间
+     * @return 不存在或已过期时返回null
+     */
+    synchronized Value get(String key, long now) {
+        Value value = map.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value.expireAt != XCacheEntry.NEVER_EXPIRE && now > value.expireAt) {
+            map.remove(key);
+            size -= value.data.length;
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * 写入，单条超过上限四分之一的数据不进内存，避免一条大数据把热点数据全部挤出去
+     *
+     * @param key
+     * @param value
+     */
+    synchronized void put(String key, Value value) {
+        Value previous = map.remove(key);
+        if (previous != null) {
+            size -= previous.data.length;
+        }
+        if (value.data.length > maxSize / 4) {
+            return;
+        }
+        map.put(key, value);
+        size += value.data.length;
+        trimToSize(maxSize);
+    }
+
+    synchronized void remove(String key) {
+        Value previous = map.remove(key);
+        if (previous != null) {
+            size -= previous.data.length;
+        }
+    }
+
+    synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * 淘汰最久未使用的数据直到不超过maxSize
+     *
+     * @param maxSize
+     */
+    synchronized void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Value>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().data.length;
+            iterator.remove();
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    long maxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,624 @@
+package cn.xcache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @description 小数据的日志结构存储，多条数据追加写入同一个段文件，避免每条数据占用一个inode和一个4K块
+ * 内存中保存 key → (段, 偏移, 长度) 的索引，启动时按编号顺序读取所有段文件恢复；
+ * 覆盖和删除只追加新记录，旧记录成为无效空间，无效空间多于有效数据时在后台压缩
+ *
+ * 记录格式和单文件缓存相同：{@link XCacheHeader} + key + 数据，
+ * 删除记录带 {@link XCacheHeader#FLAG_TOMBSTONE} 标记且没有数据部分
+ * 段文件的总长度包括无效空间，不超过构造时的sizeLimit：有效数据最多占一半，超过时淘汰最久未使用的记录，
+ * 无效空间达到有效数据的大小时压缩；读取到过期的数据只从索引中去掉，不追加删除记录，恢复和压缩时跳过
+ */
+final class XCachePack {
+    /**
+     * 段文件所在的子目录
+     */
+    static final String PACK_DIR = "pack";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /**
+     * 单个段文件的大小，超过后新建段文件
+     */
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * 单条数据的最大长度
+     */
+    static final int MAX_VALUE_SIZE = 64 * 1024;
+    /**
+     * 无效空间超过该值（sizeLimit较小时为sizeLimit的1/4）且多于有效数据时压缩
+     */
+    private static final long COMPACT_THRESHOLD = SEGMENT_SIZE;
+
+    /**
+     * 段文件
+     */
+    private static final class Segment {
+        final int id;
+        final File file;
+        /**
+         * 读线程被中断时channel会被关闭，需要重新打开
+         */
+        volatile FileChannel channel;
+        /**
+         * 有效记录的末尾，追加写入的位置
+         */
+        long length;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 一条数据在段文件中的位置
+     */
+    private static final class Location {
+        final Segment segment;
+        /**
+         * 数据部分的偏移
+         */
+        final long offset;
+        final int length;
+        final int flags;
+        final long expireAt;
+        /**
+         * 整条记录的长度，包括头部和key
+         */
+        final int recordSize;
+
+        Location(Segment segment, long offset, int length, int flags, long expireAt, int recordSize) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.flags = flags;
+            this.expireAt = expireAt;
+            this.recordSize = recordSize;
+        }
+
+        boolean isExpired(long now) {
+            return expireAt != XCacheEntry.NEVER_EXPIRE && now > expireAt;
+        }
+    }
+
+    private final File directory;
+    /**
+     * 有效数据的大小上限，sizeLimit的一半，另一半留给压缩前的无效空间
+     */
+    private final long liveLimit;
+    private final long compactThreshold;
+    private final int countLimit;
+    /**
+     * 访问顺序，表头是最久未使用的记录
+     */
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<String, Location>(16, 0.75f, true);
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    /**
+     * 正在追加写入的段
+     */
+    private Segment active;
+    /**
+     * 有效记录的总长度
+     */
+    private long liveSize;
+    /**
+     * 所有段文件的总长度
+     */
+    private long totalSize;
+    private final CountDownLatch initialized = new CountDownLatch(1);
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    /**
+     * 恢复索引和压缩都在这个线程中执行
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "xcache-pack");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * @param directory  段文件目录
+     * @param sizeLimit  段文件的总大小上限，包括无效空间，单位字节
+     * @param countLimit 条数上限
+     */
+    XCachePack(File directory, long sizeLimit, int countLimit) {
+        this.directory = directory;
+        this.liveLimit = sizeLimit / 2;
+        this.compactThreshold = Math.max(1, Math.min(COMPACT_THRESHOLD, sizeLimit / 4));
+        this.countLimit = countLimit;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    open();
+                } finally {
+                    initialized.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * 是否是段文件目录，遍历缓存目录时需要跳过
+     *
+     * @param file
+     * @return
+     */
+    static boolean isPackDir(File file) {
+        return PACK_DIR.equals(file.getName()) && file.isDirectory();
+    }
+
+    /**
+     * 读取
+     *
+     * @param key
+     * @param now 当前时间
+     * @return 不存在或已过期时返回null
+     */
+    XCacheMemory.Value get(String key, long now) {
+        awaitInitialized();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Location location;
+            synchronized (index) {
+                location = index.get(key);
+                if (location == null) {
+                    return null;
+                }
+                if (location.isExpired(now)) {
+                    //读取时不写文件，过期记录在恢复和压缩时跳过
+                    index.remove(key);
+                    liveSize -= location.recordSize;
+                    return null;
+                }
+            }
+            try {
+                byte[] data = new byte[location.length];
+                readFully(location.segment.channel, ByteBuffer.wrap(data), location.offset);
+                return new XCacheMemory.Value(location.flags, location.expireAt, data);
+            } catch (ClosedByInterruptException e) {
+                reopen(location.segment);
+                return null;
+            } catch (ClosedChannelException e) {
+                //段文件刚被压缩删除，或被其他线程的中断关闭，重新查一次索引
+                reopen(location.segment);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入
+     *
+     * @param key
+     * @param flags    头部标记
+     * @param expireAt 过期时间
+     * @param data     数据，长度不超过 {@link #MAX_VALUE_SIZE}
+     * @return 是否写入成功
+     */
+    boolean put(String key, int flags, long expireAt, byte[] data) {
+        awaitInitialized();
+        synchronized (index) {
+            try {
+                Location location = append(key, flags, expireAt, data);
+                Location previous = index.put(key, location);
+                liveSize += location.recordSize;
+                if (previous != null) {
+                    liveSize -= previous.recordSize;
+                }
+                trimToLimits();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * 删除
+     *
+     * @param key
+     * @return 是否存在并被删除
+     */
+    boolean remove(String key) {
+        awaitInitialized();
+        synchronized (index) {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            removeLocked(key);
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * 删除所有数据和段文件
+     */
+    void clear() {
+        awaitInitialized();
+        synchronized (index) {
+            index.clear();
+            for (Segment segment : segments.values()) {
+                segment.close();
+                segment.file.delete();
+            }
+            segments.clear();
+            active = null;
+            liveSize = 0;
+            totalSize = 0;
+        }
+    }
+
+    /**
+     * 等待后台的压缩完成后关闭所有段文件
+     */
+    void close() {
+        awaitInitialized();
+        XCacheCore.XCacheUtils.shutdown(executor);
+        synchronized (index) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        }
+    }
+
+    private void awaitInitialized() {
+        try {
+            initialized.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 按编号顺序读取所有段文件恢复索引，后写的记录覆盖先写的记录
+     * 末尾不完整的记录（写入时被杀进程）会被截掉
+     */
+    private void open() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new RuntimeException("can't make dirs in " + directory.getAbsolutePath());
+        }
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+        File[] segmentFiles = directory.listFiles();
+        if (segmentFiles != null) {
+            for (File file : segmentFiles) {
+                String name = file.getName();
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    files.put(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        synchronized (index) {
+            for (Map.Entry<Integer, File> item : files.entrySet()) {
+                try {
+                    Segment segment = new Segment(item.getKey(), item.getValue());
+                    segments.put(segment.id, segment);
+                    replay(segment, now);
+                    active = segment;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            trimToLimits();
+        }
+    }
+
+    private void replay(Segment segment, long now) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+        long position = 0;
+        try {
+            while (true) {
+                XCacheHeader header;
+                long payloadLength;
+                try {
+                    header = XCacheHeader.read(in, true);
+                    if (header == null) {
+                        break;
+                    }
+                    payloadLength = (header.flags & XCacheHeader.FLAG_TOMBSTONE) != 0 ? 0 : header.payloadLength;
+                    if (payloadLength < 0 || payloadLength > MAX_VALUE_SIZE) {
+                        break;
+                    }
+                    skipFully(in, payloadLength);
+                } catch (EOFException e) {
+                    break;
+                }
+                int recordSize = (int) (header.payloadOffset() + payloadLength);
+                Location previous;
+                if ((header.flags & XCacheHeader.FLAG_TOMBSTONE) != 0 || header.isExpired(now)) {
+                    previous = index.remove(header.key);
+                } else {
+                    Location location = new Location(segment, position + header.payloadOffset(), (int) payloadLength,
+                            header.flags, header.expireAt, recordSize);
+                    previous = index.put(header.key, location);
+                    liveSize += recordSize;
+                }
+                if (previous != null) {
+                    liveSize -= previous.recordSize;
+                }
+                position += recordSize;
+            }
+        } finally {
+            in.close();
+        }
+        if (position < segment.channel.size()) {
+            segment.channel.truncate(position);
+        }
+        segment.length = position;
+        totalSize += position;
+    }
+
+    /**
+     * 追加一条记录，调用方需持有index的锁
+     *
+     * @param data 为null时写入删除记录
+     * @return 记录的位置
+     * @throws IOException
+     */
+    private Location append(String key, int flags, long expireAt, byte[] data) throws IOException {
+        int length = data != null ? data.length : 0;
+        byte[] header = XCacheHeader.encode(key, flags, expireAt, length);
+        int recordSize = header.length + length;
+        if (active == null || (active.length > 0 && active.length + recordSize > SEGMENT_SIZE)) {
+            rollSegment();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+        buffer.put(header);
+        if (data != null) {
+            buffer.put(data);
+        }
+        buffer.flip();
+        Segment segment = active;
+        long position = segment.length;
+        try {
+            writeFully(segment.channel, buffer, position);
+        } catch (IOException e) {
+            //去掉写了一半的记录，下次从同一位置重新写
+            reopen(segment);
+            try {
+                segment.channel.truncate(position);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        segment.length += recordSize;
+        totalSize += recordSize;
+        return new Location(segment, position + header.length, length, flags, expireAt, recordSize);
+    }
+
+    /**
+     * 新建一个段文件作为追加写入的段，调用方需持有index的锁
+     *
+     * @throws IOException
+     */
+    private void rollSegment() throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment segment = new Segment(id, new File(directory, id + SEGMENT_SUFFIX));
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    /**
+     * 删除并写入删除记录，调用方需持有index的锁
+     *
+     * @param key
+     */
+    private void removeLocked(String key) {
+        Location previous = index.remove(key);
+        if (previous == null) {
+            return;
+        }
+        liveSize -= previous.recordSize;
+        try {
+            append(key, XCacheHeader.FLAG_TOMBSTONE, XCacheEntry.NEVER_EXPIRE, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的记录，直到条数和大小都不超过限制，调用方需持有index的锁
+     */
+    private void trimToLimits() {
+        while (!index.isEmpty() && (index.size() > countLimit || liveSize > liveLimit)) {
+            removeLocked(index.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * 段文件被其他线程的中断关闭时重新打开
+     *
+     * @param segment
+     */
+    private void reopen(Segment segment) {
+        synchronized (index) {
+            if (segments.get(segment.id) != segment || segment.channel.isOpen()) {
+                return;
+            }
+            try {
+                segment.channel = new RandomAccessFile(segment.file, "rw").getChannel();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void compactIfNeeded() {
+        synchronized (index) {
+            long deadSize = totalSize - liveSize;
+            if (deadSize < compactThreshold || deadSize < liveSize) {
+                return;
+            }
+        }
+        if (compacting.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 压缩：先新建一个段，把之前的段全部封存，再把封存段中的有效记录复制到新段，最后删除所有封存段
+     * 封存段不再被写入，复制时可以不加锁读取；封存段一起删除，其中的删除记录不会让更早的记录复活
+     * 复制中途被杀进程时新旧段中是同一份数据，恢复时新段覆盖旧段
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        List<Segment> sealed;
+        List<Map.Entry<String, Location>> live;
+        synchronized (index) {
+            sealed = new ArrayList<Segment>(segments.values());
+            if (sealed.isEmpty()) {
+                return;
+            }
+            rollSegment();
+            live = new ArrayList<Map.Entry<String, Location>>(index.size());
+            for (Map.Entry<String, Location> item : index.entrySet()) {
+                live.add(new AbstractMap.SimpleImmutableEntry<String, Location>(item.getKey(), item.getValue()));
+            }
+        }
+        long now = System.currentTimeMillis();
+        //按最久未使用的顺序逐条重新写入，access顺序保持不变
+        for (Map.Entry<String, Location> item : live) {
+            String key = item.getKey();
+            Location location = item.getValue();
+            if (location.isExpired(now)) {
+                synchronized (index) {
+                    if (index.get(key) == location) {
+                        index.remove(key);
+                        liveSize -= location.recordSize;
+                    }
+                }
+                continue;
+            }
+            byte[] data = readSealed(location);
+            if (data == null) {
+                //已被clear
+                continue;
+            }
+            synchronized (index) {
+                if (index.get(key) != location) {
+                    continue;
+                }
+                Location moved = append(key, location.flags, location.expireAt, data);
+                index.put(key, moved);
+                liveSize += moved.recordSize - location.recordSize;
+            }
+        }
+        synchronized (index) {
+            for (Segment segment : sealed) {
+                if (segments.remove(segment.id) == segment) {
+                    totalSize -= segment.length;
+                    segment.close();
+                    segment.file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取封存段中的数据，channel被中断关闭时重新打开再读一次
+     *
+     * @param location
+     * @return 段文件已被删除时返回null
+     * @throws IOException
+     */
+    private byte[] readSealed(Location location) throws IOException {
+        byte[] data = new byte[location.length];
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                readFully(location.segment.channel, ByteBuffer.wrap(data), location.offset);
+                return data;
+            } catch (ClosedChannelException e) {
+                reopen(location.segment);
+            }
+        }
+        return null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes((int) length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package cn.xcache;
+
+import java.util.LinkedHashMap;
+
+/**
+ * @description 解析后的不可修改对象的缓存，按条数限制大小，LRU淘汰
+ * 同一个key只保留一种解析方式的结果，换一种解析方式读取时视为未命中
+ *
+ * 写入和删除key时调用 {@link #remove(String)}；并发写入后不保存旧数据解析结果的检查由调用方按key的写锁分段完成
+ */
+final class XCacheParsed {
+
+    private static final class Parsed {
+        final Object parser;
+        final long expireAt;
+        final Object value;
+
+        Parsed(Object parser, long expireAt, Object value) {
+            this.parser = parser;
+            this.expireAt = expireAt;
+            this.value = value;
+        }
+    }
+
+    private final LinkedHashMap<String, Parsed> map = new LinkedHashMap<String, Parsed>(16, 0.75f, true);
+    private final int maxCount;
+
+    /**
+     * @param maxCount 最多保存的条数
+     */
+    XCacheParsed(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * 读取
+     *
+     * @param key
+     * @param parser 解析方式
+     * @param now    当前时间
+     * @return 不存在、解析方式不同或已过期时返回null
+     */
+    synchronized Object get(String key, Object parser, long now) {
+        Parsed parsed = map.get(key);
+        if (parsed == null || parsed.parser != parser) {
+            return null;
+        }
+        if (parsed.expireAt != XCacheEntry.NEVER_EXPIRE && now > parsed.expireAt) {
+            map.remove(key);
+            return null;
+        }
+        return parsed.value;
+    }
+
+    /**
+     * 保存解析结果
+     *
+     * @param key
+     * @param parser   解析方式
+     * @param expireAt 数据的过期时间
+     * @param value    解析结果
+     */
+    synchronized void put(String key, Object parser, long expireAt, Object value) {
+        map.put(key, new Parsed(parser, expireAt, value));
+        if (map.size() > maxCount) {
+            map.remove(map.keySet().iterator().next());
+        }
+    }
+
+    synchronized void remove(String key) {
+        map.remove(key);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+}
@@ -0,0 +1,112 @@
+package cn.xcache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @description 统计计数，按线程分段累加，读取快照时再汇总，避免多个线程竞争同一个计数器
+ * 每段的计数器连续存放，段之间留出填充，避免不同段落在同一个缓存行上
+ *
+ * 耗时按固定的桶统计：第0个桶是1微秒（1024纳秒）以内，第i个桶是 [2^(i-1), 2^i) 微秒，最后一个桶包含更长的耗时
+ */
+final class XCacheStatsCounter {
+    static final int HITS = 0;
+    static final int MISSES = 1;
+    static final int EXPIRATIONS = 2;
+    static final int EVICTIONS = 3;
+    static final int BYTES_READ = 4;
+    static final int BYTES_WRITTEN = 5;
+    static final int COUNTERS = 6;
+
+    static final int BUCKETS = 24;
+
+    private static final int OPERATIONS = XCacheCore.Stats.Operation.values().length;
+    /**
+     * 每段的有效计数器个数：计数 + 每种操作的耗时总和 + 每种操作的耗时分布
+     */
+    private static final int SLOTS = COUNTERS + OPERATIONS + OPERATIONS * BUCKETS;
+    /**
+     * 每段占用的长度，向上取整到8个long（64字节）后再留一个缓存行的填充
+     */
+    private static final int STRIDE = ((SLOTS + 7) & ~7) + 8;
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicLongArray cells;
+    private final int stripeMask;
+
+    XCacheStatsCounter() {
+        int stripes = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        cells = new AtomicLongArray(stripes * STRIDE);
+        stripeMask = stripes - 1;
+    }
+
+    /**
+     * 累加计数
+     *
+     * @param counter {@link #HITS} 等
+     * @param delta
+     */
+    void add(int counter, long delta) {
+        cells.addAndGet(base() + counter, delta);
+    }
+
+    /**
+     * 记录一次操作的耗时
+     *
+     * @param operation
+     * @param nanos     耗时，单位纳秒
+     */
+    void recordLatency(XCacheCore.Stats.Operation operation, long nanos) {
+        nanos = Math.max(nanos, 0);
+        int base = base();
+        int ordinal = operation.ordinal();
+        cells.addAndGet(base + COUNTERS + ordinal, nanos);
+        cells.incrementAndGet(base + COUNTERS + OPERATIONS + ordinal * BUCKETS + bucketOf(nanos));
+    }
+
+    /**
+     * 汇总所有段，并发累加时各计数器之间不保证是同一时刻的值
+     *
+     * @return
+     */
+    XCacheCore.Stats snapshot() {
+        long[] counters = new long[COUNTERS];
+        long[] totalNanos = new long[OPERATIONS];
+        long[][] histograms = new long[OPERATIONS][BUCKETS];
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * STRIDE;
+            for (int i = 0; i < COUNTERS; i++) {
+                counters[i] += cells.get(base + i);
+            }
+            for (int op = 0; op < OPERATIONS; op++) {
+                totalNanos[op] += cells.get(base + COUNTERS + op);
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    histograms[op][bucket] += cells.get(base + COUNTERS + OPERATIONS + op * BUCKETS + bucket);
+                }
+            }
+        }
+        return new XCacheCore.Stats(counters, totalNanos, histograms);
+    }
+
+    /**
+     * 第i个桶的上限，单位纳秒，最后一个桶没有上限
+     *
+     * @param bucket
+     * @return
+     */
+    static long bucketUpperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1024L << bucket;
+    }
+
+    private static int bucketOf(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> 10);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private int base() {
+        return ((int) Thread.currentThread().getId() & stripeMask) * STRIDE;
+    }
+}
@@ -0,0 +1,44 @@
+package cn.xcache;
+
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+
+/**
+ * @description String的编解码，固定使用UTF-8，长度记录在头部的payloadLength中
+ * 读取时按长度一次读入线程内复用的缓冲区，再一次性解码，整个过程只分配结果String
+ */
+final class XCacheStringCodec {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 线程内复用的读取缓冲区，用软引用持有，内存紧张时可以被回收
+     */
+    private static final ThreadLocal<SoftReference<byte[]>> SCRATCH = new ThreadLocal<SoftReference<byte[]>>();
+
+    private XCacheStringCodec() {
+    }
+
+    static byte[] encode(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    static String decode(byte[] data, int offset, int length) {
+        return new String(data, offset, length, UTF_8);
+    }
+
+    /**
+     * 获取当前线程的读取缓冲区
+     *
+     * @param length 需要的最小长度
+     * @return 长度不小于length的缓冲区，内容未定义
+     */
+    static byte[] scratch(int length) {
+        SoftReference<byte[]> reference = SCRATCH.get();
+        byte[] buffer = reference != null ? reference.get() : null;
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[Math.max(length, 8192)];
+            SCRATCH.set(new SoftReference<byte[]>(buffer));
+        }
+        return buffer;
+    }
+}
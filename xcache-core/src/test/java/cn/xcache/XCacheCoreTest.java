@@ -0,0 +1,592 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheCore} 的读写、淘汰和重启后的恢复，直接在JVM上运行，不需要Android环境
+ */
+public class XCacheCoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).build();
+        cache.put("string", "值");
+        cache.put("binary", new byte[] {1, 2, 3});
+        assertEquals("值", cache.getString("string"));
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.getBinary("binary"));
+
+        cache.remove("string");
+        assertNull(cache.getString("string"));
+        assertNull(cache.getString("missing"));
+    }
+
+    @Test
+    public void evictsBeyondCountLimit() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).count(2).build();
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertNull(cache.getString("a"));
+        assertEquals("2", cache.getString("b"));
+        assertEquals("3", cache.getString("c"));
+    }
+
+    @Test
+    public void reopensExistingEntries() throws IOException {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).recordStats().build();
+        cache.put("a", "1");
+        cache.flush();
+        cache.close();
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).recordStats().build();
+        assertEquals("1", reopened.getString("a"));
+        assertEquals(1, reopened.stats().hitCount());
+    }
+
+    @Test
+    public void expiryIsKeptAcrossReopen() throws Exception {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("short", "1", 1);
+        cache.put("long", "2", 3600);
+        cache.put("forever", "3");
+        cache.close();
+
+        Thread.sleep(1500);
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertNull(reopened.getString("short"));
+        assertEquals("2", reopened.getString("long"));
+        assertEquals("3", reopened.getString("forever"));
+        reopened.close();
+
+        //日志不存在时从文件头部读出过期时间
+        new File(directory, XCacheJournal.JOURNAL_FILE).delete();
+        XCacheCore scanned = new XCacheCore.Builder(directory).build();
+        assertNull(scanned.getString("short"));
+        assertEquals("2", scanned.getString("long"));
+        assertEquals("3", scanned.getString("forever"));
+        scanned.close();
+    }
+
+    @Test
+    public void concurrentWritersEvictOnlyWhatIsNeeded() throws Exception {
+        final int threads = 8;
+        final int putsPerThread = 200;
+        final int countLimit = 50;
+        final XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).count(countLimit).recordStats().build();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int writer = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < putsPerThread; i++) {
+                        cache.put(writer + "-" + i, "v");
+                    }
+                }
+            };
+            thread.start();
+            writers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        int present = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < putsPerThread; i++) {
+                if (cache.getString(t + "-" + i) != null) {
+                    present++;
+                }
+            }
+        }
+        assertEquals(countLimit, present);
+        assertEquals(threads * putsPerThread - countLimit, cache.stats().evictionCount());
+    }
+
+    @Test
+    public void evictionDoesNotLoseConcurrentOverwrites() throws Exception {
+        final int threads = 4;
+        final int keys = 32;
+        final int countLimit = 16;
+        final XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).count(countLimit).build();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int writer = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 500; i++) {
+                        cache.put("key-" + ((i * 7 + writer) % keys), "v" + i);
+                    }
+                }
+            };
+            thread.start();
+            writers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        //索引中的每一条都必须能读到，淘汰删掉刚rename的新文件时这里会少
+        int present = 0;
+        for (int i = 0; i < keys; i++) {
+            if (cache.getString("key-" + i) != null) {
+                present++;
+            }
+        }
+        assertEquals(countLimit, present);
+    }
+
+    @Test
+    public void batchEvictsOnlyWhatIsNeeded() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).count(10).recordStats().build();
+        for (int i = 0; i < 10; i++) {
+            cache.put("old-" + i, "v");
+        }
+        Map<String, String> batch = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 5; i++) {
+            batch.put("new-" + i, "v");
+        }
+        //覆盖已有的key不需要新的空间
+        batch.put("old-9", "w");
+        cache.putAll(batch);
+
+        assertEquals(5, cache.stats().evictionCount());
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.getString("old-" + i));
+            assertEquals("v", cache.getString("new-" + i));
+        }
+        assertEquals("w", cache.getString("old-9"));
+    }
+
+    @Test
+    public void memoryTierNeverKeepsAStaleRead() throws Exception {
+        final XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).memorySize(1024 * 1024).build();
+        final int rounds = 300;
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    for (int i = 0; i < 4; i++) {
+                        cache.getString("key-" + i);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < 4; i++) {
+                cache.put("key-" + i, "v" + round);
+            }
+            //写入之后立即删除，读线程在两者之间读到的旧值不能留在内存缓存里
+            cache.remove("key-" + (round % 4));
+            for (int i = 0; i < 4; i++) {
+                String expected = i == round % 4 ? null : "v" + round;
+                assertEquals(expected, cache.getString("key-" + i));
+            }
+        }
+        done.set(true);
+        reader.join();
+    }
+
+    @Test
+    public void memoryTierNeverKeepsAValueRemovedInABatch() throws Exception {
+        final XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).memorySize(1024 * 1024).build();
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 16; i++) {
+            keys.add("key-" + i);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < 2; t++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        for (String key : keys) {
+                            cache.getBinary(key);
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            for (int round = 0; round < 300; round++) {
+                for (String key : keys) {
+                    cache.put(key, new byte[] {(byte) round});
+                }
+                //批量删除之后读线程正在读取的旧值不能回填到内存缓存
+                List<String> removed = keys.subList(round % 2, round % 2 + 8);
+                cache.removeAll(removed);
+                for (String key : keys) {
+                    byte[] value = cache.getBinary(key);
+                    if (removed.contains(key)) {
+                        assertNull(key + " round " + round, value);
+                    } else {
+                        assertArrayEquals(new byte[] {(byte) round}, value);
+                    }
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+    }
+
+    @Test
+    public void closeReleasesTheDirectoryForReopening() throws IOException {
+        File directory = folder.newFolder();
+        for (int round = 0; round < 3; round++) {
+            XCacheCore cache = new XCacheCore.Builder(directory).packThreshold(4096).build();
+            if (round > 0) {
+                //小数据在段文件中，大数据是单独的文件
+                assertEquals("small" + (round - 1), cache.getString("small"));
+                assertEquals(round - 1, cache.getBinary("large")[8191]);
+            }
+            cache.put("small", "small" + round);
+            byte[] large = new byte[8192];
+            large[8191] = (byte) round;
+            cache.put("large", large);
+            cache.close();
+        }
+    }
+
+    @Test
+    public void migratesLegacyFlatDirectoryOnFirstOpen() throws IOException {
+        File directory = folder.newFolder();
+        long now = System.currentTimeMillis();
+        //旧版直接以key为文件名存放在根目录，数据前面是 "13位保存时间-有效秒数 " 的前缀
+        writeFile(new File(directory, "plain"), "没有时间前缀".getBytes("UTF-8"));
+        writeFile(new File(directory, "fresh"), (String.format("%013d", now) + "-3600 值").getBytes("UTF-8"));
+        writeFile(new File(directory, "expired"), (String.format("%013d", now - 7200 * 1000) + "-60 旧值").getBytes("UTF-8"));
+
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        assertArrayEquals("没有时间前缀".getBytes("UTF-8"), cache.getBinary("plain"));
+        assertArrayEquals("值".getBytes("UTF-8"), cache.getBinary("fresh"));
+        assertNull(cache.getBinary("expired"));
+        cache.close();
+
+        //迁移后根目录下不再有旧文件，再次打开从日志恢复
+        assertFalse(new File(directory, "plain").exists());
+        assertFalse(new File(directory, "fresh").exists());
+        assertFalse(new File(directory, "expired").exists());
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertArrayEquals("值".getBytes("UTF-8"), reopened.getBinary("fresh"));
+        assertNull(reopened.getBinary("expired"));
+        reopened.close();
+    }
+
+    @Test
+    public void pendingAsyncWritesAreCoalesced() throws Exception {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).ioThreads(1).build();
+        CountDownLatch release = blockIoThread(cache);
+
+        Future<Void> first = cache.putAsync("key", "1");
+        Future<Void> second = cache.putAsync("key", "2");
+        Future<Void> third = cache.putAsync("key", new byte[] {3});
+        //排队中的写入被替换为最新的值，由同一个任务写入
+        assertSame(first, second);
+        assertSame(first, third);
+        assertFalse(first.isDone());
+        assertArrayEquals(new byte[] {3}, cache.getBinary("key"));
+
+        release.countDown();
+        first.get();
+        assertArrayEquals(new byte[] {3}, cache.getBinary("key"));
+        cache.close();
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertArrayEquals(new byte[] {3}, reopened.getBinary("key"));
+        reopened.close();
+    }
+
+    @Test
+    public void readsSeeThePendingValue() throws Exception {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).ioThreads(1).build();
+        cache.put("key", "old");
+        CountDownLatch release = blockIoThread(cache);
+
+        Future<Void> write = cache.putAsync("key", "new");
+        assertFalse(write.isDone());
+        assertEquals("new", cache.getString("key"));
+        Map<String, String> values = cache.getAll(Collections.singletonList("key"));
+        assertEquals("new", values.get("key"));
+
+        release.countDown();
+        write.get();
+        assertEquals("new", cache.getString("key"));
+        cache.close();
+    }
+
+    @Test
+    public void removeCancelsThePendingWrite() throws Exception {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).ioThreads(1).build();
+        cache.put("key", "old");
+        CountDownLatch release = blockIoThread(cache);
+
+        Future<Void> write = cache.putAsync("key", "new");
+        cache.remove("key");
+        assertNull(cache.getString("key"));
+
+        release.countDown();
+        write.get();
+        assertNull(cache.getString("key"));
+        cache.close();
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertNull(reopened.getString("key"));
+        reopened.close();
+    }
+
+    @Test
+    public void compressedEntriesRoundTrip() throws IOException {
+        File directory = folder.newFolder();
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"名称\"},");
+        }
+        byte[] binary = json.toString().getBytes("UTF-8");
+        XCacheCore cache = new XCacheCore.Builder(directory).compress(new XCacheCore.DeflateCodec(), 1024).build();
+        cache.put("string", json.toString());
+        cache.put("binary", binary);
+        assertEquals(json.toString(), cache.getString("string"));
+        assertArrayEquals(binary, cache.getBinary("binary"));
+        cache.close();
+
+        Map<String, XCacheHeader> headers = readHeaders(directory);
+        assertEquals(XCacheHeader.FLAG_UTF8_STRING | XCacheHeader.FLAG_COMPRESSED, headers.get("string").flags);
+        assertEquals(XCacheHeader.FLAG_COMPRESSED, headers.get("binary").flags);
+        assertTrue(headers.get("binary").payloadLength < binary.length / 4);
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).compress(new XCacheCore.DeflateCodec(), 1024).build();
+        assertEquals(json.toString(), reopened.getString("string"));
+        assertArrayEquals(binary, reopened.getBinary("binary"));
+        reopened.close();
+    }
+
+    @Test
+    public void valuesBelowThresholdOrIncompressibleAreStoredRaw() throws IOException {
+        File directory = folder.newFolder();
+        byte[] small = new byte[512];
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        XCacheCore cache = new XCacheCore.Builder(directory).compress(new XCacheCore.DeflateCodec(), 1024).build();
+        cache.put("small", small);
+        cache.put("random", random);
+        assertArrayEquals(small, cache.getBinary("small"));
+        assertArrayEquals(random, cache.getBinary("random"));
+        cache.close();
+
+        Map<String, XCacheHeader> headers = readHeaders(directory);
+        assertEquals(0, headers.get("small").flags);
+        assertEquals(small.length, headers.get("small").payloadLength);
+        //压缩后没有变小，按原样保存
+        assertEquals(0, headers.get("random").flags);
+        assertEquals(random.length, headers.get("random").payloadLength);
+    }
+
+    @Test
+    public void sweeperRemovesExpiredEntriesAndFreesTheirSpace() throws Exception {
+        File directory = folder.newFolder();
+        //每条数据在磁盘上约1KB，最多保留3条
+        XCacheCore cache = new XCacheCore.Builder(directory).size(4000).count(3).recordStats().build();
+        byte[] value = new byte[1000];
+        for (int i = 0; i < 3; i++) {
+            cache.put("expiring-" + i, value, 1);
+        }
+        //不读取，等待后台清理
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.stats().expirationCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(3, cache.stats().expirationCount());
+        assertTrue(readHeaders(directory).isEmpty());
+
+        //过期数据占用的大小和数量已经归还，写满之前不需要淘汰
+        for (int i = 0; i < 3; i++) {
+            cache.put("live-" + i, value);
+        }
+        assertEquals(0, cache.stats().evictionCount());
+        cache.put("live-3", value);
+        assertEquals(1, cache.stats().evictionCount());
+        cache.close();
+    }
+
+    /**
+     * 读出缓存目录中每个文件的头部
+     *
+     * @return key对应的头部
+     */
+    private static Map<String, XCacheHeader> readHeaders(File directory) throws IOException {
+        Map<String, XCacheHeader> headers = new HashMap<String, XCacheHeader>();
+        File[] shards = directory.listFiles();
+        for (File shard : shards) {
+            if (!shard.isDirectory() || XCachePack.isPackDir(shard)) {
+                continue;
+            }
+            for (File file : shard.listFiles()) {
+                RandomAccessFile in = new RandomAccessFile(file, "r");
+                try {
+                    XCacheHeader header = XCacheHeader.read(in, true);
+                    headers.put(header.key, header);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * 占住唯一的异步读写线程，之后提交的写入都在排队
+     *
+     * @return 放开读写线程的latch
+     */
+    private static CountDownLatch blockIoThread(XCacheCore cache) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        cache.getStringAsync("block", new XCacheCore.Callback<String>() {
+            @Override
+            public void onResult(String value) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    @Test
+    public void scanKeepsTheNewestFileOfAKey() throws IOException {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("shard-newer", "分片");
+        cache.put("legacy-newer", "分片");
+        cache.close();
+        new File(directory, XCacheJournal.JOURNAL_FILE).delete();
+        long now = System.currentTimeMillis();
+        //同一个key还有旧版平铺文件，分别比分片文件旧和新
+        File olderLegacy = new File(directory, "shard-newer");
+        writeFile(olderLegacy, "旧版".getBytes("UTF-8"));
+        olderLegacy.setLastModified(now - 60 * 1000);
+        File newerLegacy = new File(directory, "legacy-newer");
+        writeFile(newerLegacy, "旧版".getBytes("UTF-8"));
+        newerLegacy.setLastModified(now + 60 * 1000);
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertEquals("分片", reopened.getString("shard-newer"));
+        assertArrayEquals("旧版".getBytes("UTF-8"), reopened.getBinary("legacy-newer"));
+        reopened.close();
+        assertEquals(2, readHeaders(directory).size());
+        assertEquals(2, shardFiles(directory).size());
+    }
+
+    @Test
+    public void reconcileKeepsTheNewestFileOfAKey() throws IOException {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("untracked-newer", new byte[] {1});
+        cache.put("tracked-newer", new byte[] {1});
+        cache.close();
+        long now = System.currentTimeMillis();
+        //日志之外还有同一个key的文件，分别比日志中的文件新和旧
+        File shard = new File(directory, "00");
+        shard.mkdirs();
+        File newer = new File(shard, "untracked-newer");
+        writeEntryFile(newer, "untracked-newer", new byte[] {2});
+        newer.setLastModified(now + 60 * 1000);
+        File older = new File(shard, "tracked-newer");
+        writeEntryFile(older, "tracked-newer", new byte[] {2});
+        older.setLastModified(now - 60 * 1000);
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertArrayEquals(new byte[] {2}, reopened.getBinary("untracked-newer"));
+        assertArrayEquals(new byte[] {1}, reopened.getBinary("tracked-newer"));
+        reopened.close();
+        assertTrue(newer.exists());
+        assertFalse(older.exists());
+        assertEquals(2, shardFiles(directory).size());
+    }
+
+    private static void writeEntryFile(File file, String key, byte[] data) throws IOException {
+        byte[] header = XCacheHeader.encode(key, 0, XCacheEntry.NEVER_EXPIRE, data.length);
+        byte[] content = new byte[header.length + data.length];
+        System.arraycopy(header, 0, content, 0, header.length);
+        System.arraycopy(data, 0, content, header.length, data.length);
+        writeFile(file, content);
+    }
+
+    private static List<File> shardFiles(File directory) {
+        List<File> files = new ArrayList<File>();
+        for (File shard : directory.listFiles()) {
+            if (shard.isDirectory() && !XCachePack.isPackDir(shard)) {
+                files.addAll(Arrays.asList(shard.listFiles()));
+            }
+        }
+        return files;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
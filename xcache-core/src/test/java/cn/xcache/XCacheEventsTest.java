@@ -0,0 +1,99 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheEvents} 的采样和分发，以及各个写入路径上报的事件，不依赖Android环境
+ */
+public class XCacheEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class RecordingListener implements XCacheCore.Listener {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onEvent(XCacheCore.Event event, String key, long size, long durationNanos) {
+            events.add(event + " " + key + " " + size + " " + durationNanos);
+        }
+    }
+
+    @Test
+    public void samplesEveryOperationByDefault() {
+        XCacheEvents events = new XCacheEvents(new RecordingListener(), 1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(events.sample());
+        }
+    }
+
+    @Test
+    public void samplesEvenlyAtRate() {
+        XCacheEvents events = new XCacheEvents(new RecordingListener(), 0.25f);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (events.sample()) {
+                sampled++;
+            }
+        }
+        assertEquals(25, sampled);
+    }
+
+    @Test
+    public void dispatchesEventFields() {
+        RecordingListener listener = new RecordingListener();
+        XCacheEvents events = new XCacheEvents(listener, 1);
+        events.dispatch(XCacheCore.Event.PUT, "a", 3, 100);
+        events.dispatch(XCacheCore.Event.MISS, "b", 0, 50);
+        assertEquals(2, listener.events.size());
+        assertEquals("PUT a 3 100", listener.events.get(0));
+        assertEquals("MISS b 0 50", listener.events.get(1));
+    }
+
+    @Test
+    public void listenerFailureDoesNotPropagate() {
+        XCacheEvents events = new XCacheEvents(new XCacheCore.Listener() {
+            @Override
+            public void onEvent(XCacheCore.Event event, String key, long size, long durationNanos) {
+                throw new IllegalStateException("listener failure");
+            }
+        }, 1);
+        events.dispatch(XCacheCore.Event.EVICT, "a", 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new XCacheEvents(new RecordingListener(), 0);
+    }
+
+    @Test
+    public void streamWriteIsRecordedLikePut() throws IOException {
+        final List<String> puts = new ArrayList<String>();
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).recordStats()
+                .listener(new XCacheCore.Listener() {
+                    @Override
+                    public void onEvent(XCacheCore.Event event, String key, long size, long durationNanos) {
+                        if (event == XCacheCore.Event.PUT) {
+                            puts.add(key + " " + size);
+                        }
+                    }
+                }).build();
+        OutputStream out = cache.openOutputStream("stream");
+        out.write(new byte[] {1, 2, 3, 4});
+        out.close();
+
+        assertEquals(1, puts.size());
+        assertEquals("stream 4", puts.get(0));
+        assertEquals(1, cache.stats().operationCount(XCacheCore.Stats.Operation.PUT));
+    }
+}
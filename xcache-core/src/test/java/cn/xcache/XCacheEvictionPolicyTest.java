@@ -0,0 +1,177 @@
+package cn.xcache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheCore.TinyLfuPolicy} 和 {@link XCacheCore.GreedyDualPolicy} 的淘汰选择
+ * 回放对比命中率的工具在 xcache-benchmark 模块的 XCacheEvictionPolicyReplay
+ */
+public class XCacheEvictionPolicyTest {
+
+    /**
+     * 按策略维护一个大小受限的缓存：命中时记录访问，未命中时写入并淘汰到不超过限制
+     */
+    private static final class Resident {
+        final XCacheCore.EvictionPolicy policy;
+        final long limit;
+        final Map<String, Long> entries = new HashMap<String, Long>();
+        long size;
+
+        Resident(XCacheCore.EvictionPolicy policy, long limit) {
+            this.policy = policy;
+            this.limit = limit;
+        }
+
+        void access(String key, long valueSize) {
+            if (entries.containsKey(key)) {
+                policy.onAccess(key);
+                return;
+            }
+            entries.put(key, valueSize);
+            size += valueSize;
+            policy.onPut(key, valueSize);
+            while (size > limit) {
+                String victim = policy.evict();
+                size -= entries.remove(victim);
+            }
+        }
+
+        int count(String prefix, int n) {
+            int present = 0;
+            for (int i = 0; i < n; i++) {
+                if (entries.containsKey(prefix + i)) {
+                    present++;
+                }
+            }
+            return present;
+        }
+    }
+
+    @Test
+    public void tinyLfuRejectsOneOffScanAndKeepsHotKeys() {
+        Resident tinyLfu = scanAfterHotKeys(new XCacheCore.TinyLfuPolicy());
+        Resident lru = scanAfterHotKeys(new XCacheCore.LruPolicy());
+
+        //保护段占主区域的80%，其余热点数据在试用段中，可能输给计数冲突的扫描数据
+        assertTrue(tinyLfu.count("hot-", 50) >= 40);
+        assertEquals(100, tinyLfu.entries.size());
+        assertEquals(0, lru.count("hot-", 50));
+    }
+
+    @Test
+    public void greedyDualEvictsLargeEntriesFirst() {
+        XCacheCore.GreedyDualPolicy policy = new XCacheCore.GreedyDualPolicy();
+        policy.onPut("small", 4 * 1024);
+        policy.onPut("large", 400 * 1024);
+        policy.onPut("medium", 40 * 1024);
+
+        assertEquals("large", policy.evict());
+        assertEquals("medium", policy.evict());
+        assertEquals("small", policy.evict());
+        assertNull(policy.evict());
+    }
+
+    @Test
+    public void greedyDualEvictsColdEntriesFirst() {
+        XCacheCore.GreedyDualPolicy policy = new XCacheCore.GreedyDualPolicy();
+        policy.onPut("cold", 4 * 1024);
+        policy.onPut("hot", 4 * 1024);
+        for (int i = 0; i < 5; i++) {
+            policy.onAccess("hot");
+        }
+        //访问次数足够多的大数据比只访问一次的小数据留得久
+        policy.onPut("large-hot", 16 * 1024);
+        for (int i = 0; i < 40; i++) {
+            policy.onAccess("large-hot");
+        }
+
+        assertEquals("cold", policy.evict());
+        assertEquals("hot", policy.evict());
+        assertEquals("large-hot", policy.evict());
+    }
+
+    @Test
+    public void greedyDualAgesEntriesThatAreNoLongerRead() {
+        XCacheCore.GreedyDualPolicy policy = new XCacheCore.GreedyDualPolicy();
+        policy.onPut("old", 1024);
+        for (int i = 0; i < 3; i++) {
+            policy.onAccess("old");
+        }
+        //每次淘汰都抬高基准值，只访问一次的新数据优先级逐渐追上不再访问的旧数据
+        for (int i = 0; i < 3; i++) {
+            policy.onPut("new-" + i, 1024);
+            assertEquals("new-" + i, policy.evict());
+        }
+        policy.onPut("new-3", 1024);
+        assertEquals("old", policy.evict());
+        assertEquals("new-3", policy.evict());
+    }
+
+    @Test
+    public void lruRestoresToTheHead() {
+        XCacheCore.LruPolicy policy = new XCacheCore.LruPolicy();
+        policy.onPut("a", 1);
+        policy.onPut("b", 1);
+        policy.onPut("c", 1);
+        assertEquals("a", policy.evict());
+        assertEquals("b", policy.evict());
+        policy.restore("b");
+        policy.restore("a");
+
+        assertEquals("a", policy.evict());
+        assertEquals("b", policy.evict());
+        assertEquals("c", policy.evict());
+    }
+
+    @Test
+    public void tinyLfuRestoreKeepsPositionAndFrequency() {
+        XCacheCore.TinyLfuPolicy policy = new XCacheCore.TinyLfuPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.onPut("key-" + i, 1);
+        }
+        //挑战者和试用段表头频率相同，挑战者被选中；放回后再次比较仍是它，重新写入则会因为频率增加挤掉表头
+        String challenger = policy.evict();
+        policy.restore(challenger);
+        assertEquals(challenger, policy.evict());
+
+        String head = policy.evict();
+        policy.restore(head);
+        assertEquals(head, policy.evict());
+    }
+
+    @Test
+    public void greedyDualRestoreKeepsPriorityAndInflation() {
+        XCacheCore.GreedyDualPolicy policy = new XCacheCore.GreedyDualPolicy();
+        policy.onPut("a", 1024);
+        policy.onPut("b", 1024);
+        policy.onAccess("b");
+        assertEquals("a", policy.evict());
+        policy.restore("a");
+        //没有发生淘汰，基准值不变，新数据的优先级低于访问过两次的b
+        policy.onPut("c", 1024);
+
+        assertEquals("a", policy.evict());
+        assertEquals("c", policy.evict());
+        assertEquals("b", policy.evict());
+    }
+
+    private static Resident scanAfterHotKeys(XCacheCore.EvictionPolicy policy) {
+        Resident resident = new Resident(policy, 100);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                resident.access("hot-" + i, 1);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            resident.access("scan-" + i, 1);
+        }
+        return resident;
+    }
+}
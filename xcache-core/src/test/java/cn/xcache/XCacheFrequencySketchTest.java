@@ -0,0 +1,62 @@
+package cn.xcache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheFrequencySketch} 的计数、上限和衰减
+ */
+public class XCacheFrequencySketchTest {
+
+    @Test
+    public void countsUpToFifteen() {
+        XCacheFrequencySketch sketch = new XCacheFrequencySketch();
+        sketch.ensureCapacity(1024);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(5, sketch.frequency("a"));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(15, sketch.frequency("a"));
+        assertEquals(0, sketch.frequency("missing"));
+    }
+
+    @Test
+    public void halvesCountersAfterTheSamplePeriod() {
+        XCacheFrequencySketch sketch = new XCacheFrequencySketch();
+        sketch.ensureCapacity(16);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals(15, sketch.frequency("hot"));
+        //容量16时每记录160次衰减一次
+        for (int i = 0; i < 150; i++) {
+            sketch.increment("other-" + i);
+        }
+        int aged = sketch.frequency("hot");
+        assertTrue("frequency after reset " + aged, aged <= 8);
+        assertTrue("frequency after reset " + aged, aged >= 7);
+    }
+
+    @Test
+    public void clearResetsAllCounters() {
+        XCacheFrequencySketch sketch = new XCacheFrequencySketch();
+        sketch.ensureCapacity(16);
+        sketch.increment("a");
+        sketch.clear();
+        assertEquals(0, sketch.frequency("a"));
+    }
+
+    @Test
+    public void growingDropsOldCounts() {
+        XCacheFrequencySketch sketch = new XCacheFrequencySketch();
+        sketch.ensureCapacity(16);
+        sketch.increment("a");
+        sketch.ensureCapacity(1024);
+        assertEquals(0, sketch.frequency("a"));
+    }
+}
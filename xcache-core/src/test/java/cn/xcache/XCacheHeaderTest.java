@@ -0,0 +1,73 @@
+package cn.xcache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheHeader} 的编码和读取
+ */
+public class XCacheHeaderTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] encoded = XCacheHeader.encode("键-key", XCacheHeader.FLAG_UTF8_STRING, 1234567890123L, 42);
+        assertEquals(XCacheHeader.fileLength("键-key", 42), encoded.length + 42);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        XCacheHeader header = XCacheHeader.read(in, true);
+        assertEquals("键-key", header.key);
+        assertEquals(XCacheHeader.FLAG_UTF8_STRING, header.flags);
+        assertEquals(1234567890123L, header.expireAt);
+        assertEquals(42, header.payloadLength);
+        assertEquals(encoded.length, header.payloadOffset());
+        //读完key之后停在数据部分开头
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void skipsTheKeyWhenNotRequested() throws IOException {
+        byte[] encoded = XCacheHeader.encode("key", 0, XCacheEntry.NEVER_EXPIRE, 0);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        XCacheHeader header = XCacheHeader.read(in, false);
+        assertNull(header.key);
+        assertEquals(3, header.keyLength);
+        assertEquals(3, in.available());
+    }
+
+    @Test
+    public void rejectsLegacyAndTruncatedFiles() throws IOException {
+        byte[] legacy = (String.format("%013d", System.currentTimeMillis()) + "-60 value of the old format")
+                .getBytes("UTF-8");
+        assertNull(XCacheHeader.read(new DataInputStream(new ByteArrayInputStream(legacy)), true));
+
+        byte[] encoded = XCacheHeader.encode("key", 0, XCacheEntry.NEVER_EXPIRE, 0);
+        byte[] truncated = new byte[XCacheHeader.SIZE - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertNull(XCacheHeader.read(new DataInputStream(new ByteArrayInputStream(truncated)), true));
+    }
+
+    @Test
+    public void expiry() {
+        long now = System.currentTimeMillis();
+        assertFalse(header(XCacheEntry.NEVER_EXPIRE).isExpired(now));
+        assertFalse(header(now).isExpired(now));
+        assertTrue(header(now - 1).isExpired(now));
+    }
+
+    private static XCacheHeader header(long expireAt) {
+        try {
+            byte[] encoded = XCacheHeader.encode("key", 0, expireAt, 0);
+            return XCacheHeader.read(new DataInputStream(new ByteArrayInputStream(encoded)), false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
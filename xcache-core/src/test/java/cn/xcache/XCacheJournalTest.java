@@ -0,0 +1,201 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCacheJournal} 的恢复、损坏处理和压缩，以及打开缓存时日志和目录的核对
+ */
+public class XCacheJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysPutsReadsAndRemovesInAccessOrder() throws IOException {
+        File directory = folder.newFolder();
+        XCacheJournal journal = new XCacheJournal(directory);
+        XCacheEntry a = new XCacheEntry("a", "00/a", 10, XCacheEntry.NEVER_EXPIRE, 1);
+        XCacheEntry b = new XCacheEntry("b", "00/b", 20, XCacheEntry.NEVER_EXPIRE, 2);
+        XCacheEntry c = new XCacheEntry("c", "00/c", 30, 12345, 3);
+        journal.writeBatch(Arrays.asList(a, b, c), Collections.<XCacheEntry>emptyList());
+        a.lastAccess = 4;
+        journal.writeReads(Collections.singletonList(a));
+        journal.writeRemove("b");
+        journal.close();
+
+        Map<String, XCacheEntry> entries = newIndex();
+        assertTrue(new XCacheJournal(directory).replay(entries));
+        assertEquals(Arrays.asList("c", "a"), new ArrayList<String>(entries.keySet()));
+        assertEquals(4, entries.get("a").lastAccess);
+        assertEquals(30, entries.get("c").size);
+        assertEquals(12345, entries.get("c").expireAt);
+        assertEquals("00/c", entries.get("c").fileName);
+    }
+
+    @Test
+    public void truncatedTailKeepsEarlierRecordsAndForcesCompaction() throws IOException {
+        File directory = folder.newFolder();
+        XCacheJournal journal = new XCacheJournal(directory);
+        journal.writeBatch(Arrays.asList(new XCacheEntry("a", "00/a", 10, XCacheEntry.NEVER_EXPIRE, 1),
+                new XCacheEntry("b", "00/b", 20, XCacheEntry.NEVER_EXPIRE, 2)), Collections.<XCacheEntry>emptyList());
+        journal.close();
+        File file = new File(directory, XCacheJournal.JOURNAL_FILE);
+        truncate(file, file.length() - 3);
+
+        XCacheJournal reopened = new XCacheJournal(directory);
+        Map<String, XCacheEntry> entries = newIndex();
+        assertTrue(reopened.replay(entries));
+        assertEquals(Collections.singletonList("a"), new ArrayList<String>(entries.keySet()));
+        assertTrue(reopened.needsRebuild(entries.size()));
+    }
+
+    @Test
+    public void emptyOrTruncatedHeaderIsCorrupt() throws IOException {
+        File directory = folder.newFolder();
+        File file = new File(directory, XCacheJournal.JOURNAL_FILE);
+        new FileOutputStream(file).close();
+        assertFalse(new XCacheJournal(directory).replay(newIndex()));
+
+        XCacheJournal journal = new XCacheJournal(directory);
+        journal.rebuild(Collections.<XCacheEntry>emptyList());
+        truncate(file, 5);
+        assertFalse(new XCacheJournal(directory).replay(newIndex()));
+    }
+
+    @Test
+    public void unknownOperationIsCorrupt() throws IOException {
+        File directory = folder.newFolder();
+        XCacheJournal journal = new XCacheJournal(directory);
+        journal.writeBatch(Collections.singletonList(new XCacheEntry("a", "00/a", 10, XCacheEntry.NEVER_EXPIRE, 1)),
+                Collections.<XCacheEntry>emptyList());
+        journal.close();
+        FileOutputStream out = new FileOutputStream(new File(directory, XCacheJournal.JOURNAL_FILE), true);
+        out.write(new byte[] {99, 0, 0, 0, 1, 'x'});
+        out.close();
+
+        Map<String, XCacheEntry> entries = newIndex();
+        assertFalse(new XCacheJournal(directory).replay(entries));
+        assertTrue(entries.isEmpty());
+    }
+
+    @Test
+    public void compactionKeepsOnlyLiveEntries() throws IOException {
+        File directory = folder.newFolder();
+        XCacheJournal journal = new XCacheJournal(directory);
+        XCacheEntry a = new XCacheEntry("a", "00/a", 10, XCacheEntry.NEVER_EXPIRE, 1);
+        List<XCacheEntry> reads = new ArrayList<XCacheEntry>();
+        for (int i = 0; i < 2000; i++) {
+            reads.add(a);
+        }
+        journal.writeBatch(Collections.singletonList(a), Collections.<XCacheEntry>emptyList());
+        journal.writeReads(reads);
+        assertTrue(journal.needsRebuild(1));
+        File file = new File(directory, XCacheJournal.JOURNAL_FILE);
+        long before = file.length();
+
+        journal.rebuild(Collections.singletonList(a));
+        assertFalse(journal.needsRebuild(1));
+        assertTrue(file.length() < before);
+        journal.close();
+        Map<String, XCacheEntry> entries = newIndex();
+        assertTrue(new XCacheJournal(directory).replay(entries));
+        assertEquals(Collections.singletonList("a"), new ArrayList<String>(entries.keySet()));
+    }
+
+    @Test
+    public void emptyJournalFallsBackToDirectoryScan() throws IOException {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("a", "1");
+        cache.close();
+        truncate(new File(directory, XCacheJournal.JOURNAL_FILE), 0);
+
+        assertEquals("1", new XCacheCore.Builder(directory).build().getString("a"));
+    }
+
+    @Test
+    public void fileWrittenAfterTheLastJournalRecordIsAdopted() throws IOException {
+        File directory = folder.newFolder();
+        File journalFile = new File(directory, XCacheJournal.JOURNAL_FILE);
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("a", "1");
+        cache.close();
+        byte[] journalBeforeB = readAll(journalFile);
+        cache = new XCacheCore.Builder(directory).build();
+        cache.put("b", "2");
+        cache.close();
+        //模拟rename之后、写日志之前被结束进程
+        FileOutputStream out = new FileOutputStream(journalFile);
+        out.write(journalBeforeB);
+        out.close();
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).build();
+        assertEquals("1", reopened.getString("a"));
+        assertEquals("2", reopened.getString("b"));
+    }
+
+    @Test
+    public void journalEntryWithoutFileIsDropped() throws IOException {
+        File directory = folder.newFolder();
+        XCacheCore cache = new XCacheCore.Builder(directory).build();
+        cache.put("a", "1");
+        cache.close();
+        //模拟删除文件之后、写日志之前被结束进程
+        for (File shardDir : directory.listFiles()) {
+            if (shardDir.isDirectory()) {
+                for (File file : shardDir.listFiles()) {
+                    assertTrue(file.delete());
+                }
+            }
+        }
+
+        XCacheCore reopened = new XCacheCore.Builder(directory).count(1).recordStats().build();
+        assertNull(reopened.getString("a"));
+        reopened.put("b", "2");
+        //a已经不在索引中，写入b不需要淘汰
+        assertEquals(0, reopened.stats().evictionCount());
+        assertEquals("2", reopened.getString("b"));
+    }
+
+    private static Map<String, XCacheEntry> newIndex() {
+        return new LinkedHashMap<String, XCacheEntry>(16, 0.75f, true);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+        try {
+            raFile.setLength(length);
+        } finally {
+            raFile.close();
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile raFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raFile.length()];
+            raFile.readFully(data);
+            return data;
+        } finally {
+            raFile.close();
+        }
+    }
+}
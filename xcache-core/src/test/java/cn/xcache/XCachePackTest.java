@@ -0,0 +1,133 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link XCachePack} 的恢复、删除记录、压缩和大小限制
+ */
+public class XCachePackTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysAfterReopen() throws IOException {
+        File directory = folder.newFolder();
+        XCachePack pack = new XCachePack(directory, 1024 * 1024, 100);
+        assertTrue(pack.put("a", 0, XCacheEntry.NEVER_EXPIRE, bytes(1, 100)));
+        assertTrue(pack.put("b", 0, XCacheEntry.NEVER_EXPIRE, bytes(2, 100)));
+        assertTrue(pack.put("a", 0, XCacheEntry.NEVER_EXPIRE, bytes(3, 100)));
+        pack.close();
+
+        XCachePack reopened = new XCachePack(directory, 1024 * 1024, 100);
+        assertArrayEquals(bytes(3, 100), reopened.get("a", System.currentTimeMillis()).data);
+        assertArrayEquals(bytes(2, 100), reopened.get("b", System.currentTimeMillis()).data);
+        reopened.close();
+    }
+
+    @Test
+    public void tombstoneSurvivesReopen() throws IOException {
+        File directory = folder.newFolder();
+        XCachePack pack = new XCachePack(directory, 1024 * 1024, 100);
+        pack.put("a", 0, XCacheEntry.NEVER_EXPIRE, bytes(1, 100));
+        pack.put("b", 0, XCacheEntry.NEVER_EXPIRE, bytes(2, 100));
+        assertTrue(pack.remove("a"));
+        pack.close();
+
+        XCachePack reopened = new XCachePack(directory, 1024 * 1024, 100);
+        assertNull(reopened.get("a", System.currentTimeMillis()));
+        assertArrayEquals(bytes(2, 100), reopened.get("b", System.currentTimeMillis()).data);
+        reopened.close();
+    }
+
+    @Test
+    public void compactionKeepsLiveEntries() throws IOException {
+        File directory = folder.newFolder();
+        long sizeLimit = 64 * 1024;
+        XCachePack pack = new XCachePack(directory, sizeLimit, 1000);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++) {
+                pack.put("key-" + i, 0, XCacheEntry.NEVER_EXPIRE, bytes(round, 500));
+            }
+        }
+        //close等待后台的压缩完成
+        pack.close();
+        assertTrue(segmentBytes(directory) <= sizeLimit);
+
+        XCachePack reopened = new XCachePack(directory, sizeLimit, 1000);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(bytes(49, 500), reopened.get("key-" + i, System.currentTimeMillis()).data);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void deadSpaceCountsTowardsTheSizeLimit() throws IOException {
+        File directory = folder.newFolder();
+        long sizeLimit = 32 * 1024;
+        XCachePack pack = new XCachePack(directory, sizeLimit, 1000);
+        for (int i = 0; i < 1000; i++) {
+            pack.put("key-" + (i % 200), 0, XCacheEntry.NEVER_EXPIRE, bytes(i, 300));
+        }
+        pack.close();
+        assertTrue(segmentBytes(directory) <= sizeLimit);
+    }
+
+    @Test
+    public void expiredReadDoesNotWrite() throws IOException {
+        File directory = folder.newFolder();
+        XCachePack pack = new XCachePack(directory, 1024 * 1024, 100);
+        pack.put("a", 0, System.currentTimeMillis() - 1, bytes(1, 100));
+        long length = segmentBytes(directory);
+
+        assertNull(pack.get("a", System.currentTimeMillis()));
+        assertEquals(length, segmentBytes(directory));
+        pack.close();
+
+        XCachePack reopened = new XCachePack(directory, 1024 * 1024, 100);
+        assertNull(reopened.get("a", System.currentTimeMillis()));
+        reopened.close();
+    }
+
+    @Test
+    public void packAndFilesShareTheCountLimit() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).count(8).packThreshold(1024).build();
+        for (int i = 0; i < 8; i++) {
+            cache.put("small-" + i, bytes(i, 10));
+            cache.put("large-" + i, bytes(i, 4096));
+        }
+        int present = 0;
+        for (int i = 0; i < 8; i++) {
+            present += cache.getBinary("small-" + i) != null ? 1 : 0;
+            present += cache.getBinary("large-" + i) != null ? 1 : 0;
+        }
+        assertEquals(8, present);
+        cache.close();
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    private static long segmentBytes(File directory) {
+        long total = 0;
+        for (File file : directory.listFiles()) {
+            total += file.length();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,71 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link XCacheCore#readParsed(String, Object, XCacheCore.EntryDecoder)} 的解析结果缓存
+ */
+public class XCacheParsedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Object parser = new Object();
+
+    @Test
+    public void parsedHitsAreCounted() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).parsedCacheSize(16).recordStats().build();
+        cache.put("a", "1");
+        String first = cache.readParsed("a", parser, decoder(cache, null));
+        String second = cache.readParsed("a", parser, decoder(cache, null));
+
+        assertSame(first, second);
+        assertEquals(2, cache.stats().hitCount());
+    }
+
+    @Test
+    public void writeToAnotherStripeKeepsTheParse() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).parsedCacheSize(16).build();
+        cache.put("a", "1");
+        //"a"和"b"的hashCode相差1，落在不同的写锁分段
+        String first = cache.readParsed("a", parser, decoder(cache, "b"));
+
+        assertSame(first, cache.readParsed("a", parser, decoder(cache, null)));
+    }
+
+    @Test
+    public void writeToTheSameKeyDropsTheParse() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).parsedCacheSize(16).build();
+        cache.put("a", "1");
+        String first = cache.readParsed("a", parser, decoder(cache, "a"));
+        String second = cache.readParsed("a", parser, decoder(cache, null));
+
+        assertEquals("1", first);
+        assertEquals("written", second);
+        assertNotSame(first, second);
+    }
+
+    /**
+     * @param writeKey 解析过程中写入的key，模拟并发写入，null时不写入
+     */
+    private static XCacheCore.EntryDecoder<String> decoder(final XCacheCore cache, final String writeKey) {
+        return new XCacheCore.EntryDecoder<String>() {
+            @Override
+            public String decode(int flags, long expireAt, byte[] data, int length) throws Exception {
+                String value = new String(data, 0, length, "UTF-8");
+                if (writeKey != null) {
+                    cache.put(writeKey, "written");
+                }
+                return value;
+            }
+        };
+    }
+}
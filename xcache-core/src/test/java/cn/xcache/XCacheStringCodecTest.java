@@ -0,0 +1,78 @@
+package cn.xcache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link XCacheStringCodec} 的编解码，以及经过磁盘的String读写
+ */
+public class XCacheStringCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsAscii() {
+        assertRoundTrip("{\"id\":1,\"name\":\"item\"}\n{\"id\":2}\r\n\t");
+        assertEquals(5, XCacheStringCodec.encode("hello").length);
+    }
+
+    @Test
+    public void roundTripsCjk() {
+        assertRoundTrip("缓存条目，中文和日本語、한국어");
+        //每个汉字3个字节
+        assertEquals(6, XCacheStringCodec.encode("缓存").length);
+    }
+
+    @Test
+    public void roundTripsSurrogatePairs() {
+        String emoji = "a😀b𠮷";
+        assertRoundTrip(emoji);
+        assertArrayEquals(new byte[] {(byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80},
+                XCacheStringCodec.encode("😀"));
+    }
+
+    @Test
+    public void replacesInvalidSequences() {
+        //单独的代理项无法编码为UTF-8，按JDK的规则替换为'?'
+        assertEquals("a?b", decode(XCacheStringCodec.encode("a\uD800b")));
+        //不完整或非法的字节序列解码为U+FFFD，不抛异常
+        assertEquals("a�", decode(new byte[] {'a', (byte) 0xE7}));
+        assertEquals("�b", decode(new byte[] {(byte) 0xFF, 'b'}));
+    }
+
+    @Test
+    public void decodesFromTheMiddleOfAReusedBuffer() {
+        byte[] encoded = XCacheStringCodec.encode("中文");
+        byte[] scratch = XCacheStringCodec.scratch(encoded.length + 2);
+        scratch[0] = 'x';
+        System.arraycopy(encoded, 0, scratch, 1, encoded.length);
+        assertEquals("中文", XCacheStringCodec.decode(scratch, 1, encoded.length));
+        assertEquals(scratch.length, XCacheStringCodec.scratch(1).length);
+    }
+
+    @Test
+    public void roundTripsThroughTheCache() throws IOException {
+        XCacheCore cache = new XCacheCore.Builder(folder.newFolder()).build();
+        String value = "line 1\nline 2 缓存 😀\n";
+        cache.put("text", value);
+        cache.put("empty", "");
+        assertEquals(value, cache.getString("text"));
+        assertEquals("", cache.getString("empty"));
+        cache.close();
+    }
+
+    private static void assertRoundTrip(String value) {
+        assertEquals(value, decode(XCacheStringCodec.encode(value)));
+    }
+
+    private static String decode(byte[] data) {
+        return XCacheStringCodec.decode(data, 0, data.length);
+    }
+}
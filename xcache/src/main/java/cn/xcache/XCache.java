@@ -0,0 +1,713 @@
+package cn.xcache;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Trace;
+import android.text.TextUtils;
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * @author xurunjie
+ * @description 缓存类，在 {@link XCacheCore} 的基础上增加Bitmap、Drawable和JSON的读写
+ * @date 2017/09/26
+ */
+public class XCache extends XCacheCore {
+    /**
+     * put Bitmap时默认的保存格式
+     */
+    private final BitmapFormat mBitmapFormat;
+    private final int mBitmapQuality;
+    /**
+     * 解码bitmap时复用的Bitmap池，未开启时为null
+     */
+    private XCacheBitmapPool mBitmapPool;
+    /**
+     * 是否在文件读写和淘汰外添加 {@link Trace} 区段
+     */
+    private final boolean mTraceSections;
+
+    private XCache(Builder builder,Context context) {
+        super(builder, new File(context.getCacheDir(), builder.path));
+        mTraceSections = builder.traceSections && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        mBitmapFormat = builder.bitmapFormat;
+        mBitmapQuality = builder.bitmapQuality;
+        if (builder.bitmapPoolSize > 0) {
+            mBitmapPool = new XCacheBitmapPool(builder.bitmapPoolSize);
+        }
+    }
+
+    /**
+     * builder模式，缓存目录在应用的cache目录下
+     */
+    public static class Builder extends BaseBuilder<Builder> {
+        /**
+         * 默认路径
+         */
+        private String path = "xcache";
+        /**
+         * bitmap默认的保存格式，默认PNG
+         */
+        private BitmapFormat bitmapFormat = BitmapFormat.PNG;
+        private int bitmapQuality = 100;
+        /**
+         * Bitmap复用池大小，默认不开启
+         */
+        private int bitmapPoolSize = 0;
+        /**
+         * 是否添加Trace区段，默认不开启
+         */
+        private boolean traceSections;
+        /**
+         * 上下文
+         */
+        private Context context;
+
+        /**
+         * 上下文
+         * @param context
+         */
+        public Builder(Context context){
+            this.context = context;
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
+
+        public Builder path(String path){
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * put Bitmap和Drawable时默认的保存格式，默认PNG
+         * 需要快速读写时用 {@link BitmapFormat#RAW}，照片用 {@link BitmapFormat#JPEG} 或 {@link BitmapFormat#WEBP}
+         * @param format
+         * @param quality JPEG、WEBP的质量，0-100
+         * @return
+         */
+        public Builder bitmapFormat(BitmapFormat format, int quality){
+            if (format == null) {
+                throw new IllegalArgumentException("format == null");
+            }
+            this.bitmapFormat = format;
+            this.bitmapQuality = quality;
+            return this;
+        }
+
+        /**
+         * 开启Bitmap复用池，{@link XCache#recycleBitmap(Bitmap)} 放回的Bitmap在之后解码时通过inBitmap复用，减少GC
+         * @param bitmapPoolSize 单位字节，小于等于0时不开启
+         * @return
+         */
+        public Builder bitmapPoolSize(int bitmapPoolSize){
+            this.bitmapPoolSize = bitmapPoolSize;
+            return this;
+        }
+
+        /**
+         * 在文件读写和淘汰外添加 {@link Trace} 区段，可以在systrace和Perfetto中看到，4.3以下忽略
+         * @return
+         */
+        public Builder traceSections(){
+            this.traceSections = true;
+            return this;
+        }
+        public XCache build() {
+            return new XCache(this, context);
+        }
+    }
+
+    @Override
+    protected void beginSection(String name) {
+        if (mTraceSections) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @Override
+    protected void endSection() {
+        if (mTraceSections) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * 释放内存缓存、内存映射和Bitmap复用池，在Application或Activity的onTrimMemory中调用
+     * 界面不可见后进程随时可能被结束，同时写入访问顺序
+     *
+     * @param level {@link ComponentCallbacks2} 中的TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            flush();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            releaseMemory(true);
+            if (mBitmapPool != null) {
+                mBitmapPool.clear();
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            releaseMemory(false);
+            if (mBitmapPool != null) {
+                mBitmapPool.trimToSize(mBitmapPool.maxSize() / 2);
+            }
+        }
+    }
+    // ============= JSONObject 数据 读写 ==============
+    /**
+     * 保存 JSONObject数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的JSON数据
+     */
+    public void put(String key, JSONObject value) {
+        put(key, value.toString());
+    }
+
+    /**
+     * 保存 JSONObject数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的JSONObject数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, JSONObject value, int saveTime) {
+        put(key, value.toString(), saveTime);
+    }
+
+    /**
+     * 读取JSONObject数据
+     *
+     * @param key
+     * @return JSONObject数据
+     */
+    public JSONObject getJSONObject(String key) {
+        String jsonString = getString(key);
+        if (TextUtils.isEmpty(jsonString)){
+            return null;
+        }
+        try {
+            JSONObject obj = new JSONObject(jsonString);
+            return obj;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    // ============ JSONArray 数据 读写 =============
+    /**
+     * 保存 JSONArray数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的JSONArray数据
+     */
+    public void put(String key, JSONArray value) {
+        put(key, value.toString());
+    }
+
+    /**
+     * 保存 JSONArray数据 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的JSONArray数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, JSONArray value, int saveTime) {
+        put(key, value.toString(), saveTime);
+    }
+
+    /**
+     * 读取JSONArray数据
+     *
+     * @param key
+     * @return JSONArray数据
+     */
+    public JSONArray getJSONArray(String key) {
+        String jsonString = getString(key);
+        if (TextUtils.isEmpty(jsonString)){
+            return null;
+        }
+        try {
+            JSONArray obj = new JSONArray(jsonString);
+            return obj;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    // ============== JSON 流式读取 =============
+    /**
+     * 把JSON映射为自己的对象
+     *
+     * @param <T>
+     */
+    public interface JsonMapper<T> {
+        /**
+         * @param reader 不需要关闭
+         * @return 开启 {@link Builder#parsedCacheSize(int)} 时结果会被多次返回，必须是不可修改的对象
+         * @throws IOException
+         */
+        T read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * 流式读取JSON数据，用 {@link JsonReader} 直接从读取缓冲区解析，不生成中间的String和JSONObject
+     * 开启 {@link Builder#parsedCacheSize(int)} 时，同一个key用同一个mapper再次读取直接返回上次的结果
+     *
+     * @param key
+     * @param mapper 需要复用同一个实例才能命中解析结果的缓存
+     * @return 不存在、过期或解析失败时返回null
+     */
+    public <T> T getJson(String key, final JsonMapper<T> mapper) {
+        //解析结果不会引用读取缓冲区，可以复用
+        return readParsed(key, mapper, new EntryDecoder<T>() {
+            @Override
+            public T decode(int flags, long expireAt, byte[] data, int length) throws Exception {
+                Charset charset = (flags & XCacheHeader.FLAG_UTF8_STRING) != 0
+                        ? XCacheStringCodec.UTF_8 : Charset.defaultCharset();
+                JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data, 0, length), charset));
+                try {
+                    return mapper.read(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+    }
+    // ============== bitmap 数据 读写 =============
+    /**
+     * bitmap的保存格式
+     */
+    public enum BitmapFormat {
+        /**
+         * 直接保存像素和宽高、Config，读写最快，占用空间最大，适合配合 {@link Builder#compress(Codec, int)} 使用
+         * HARDWARE的bitmap不能读取像素，按 {@link #PNG} 保存
+         */
+        RAW,
+        /**
+         * 无损，编码很慢
+         */
+        PNG,
+        /**
+         * 有损，不支持透明度，适合照片
+         */
+        JPEG,
+        /**
+         * 有损，支持透明度，比JPEG小
+         */
+        WEBP
+    }
+
+    /**
+     * 保存 bitmap 到 缓存中，使用 {@link Builder#bitmapFormat(BitmapFormat, int)} 设置的格式
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的bitmap数据
+     */
+    public void put(String key, Bitmap value) {
+        put(key, value, mBitmapFormat, mBitmapQuality, time);
+    }
+
+    /**
+     * 保存 bitmap 到 缓存中，使用 {@link Builder#bitmapFormat(BitmapFormat, int)} 设置的格式
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的 bitmap 数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, Bitmap value, int saveTime) {
+        put(key, value, mBitmapFormat, mBitmapQuality, saveTime);
+    }
+
+    /**
+     * 按指定格式保存 bitmap 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的 bitmap 数据
+     * @param format
+     *            保存格式
+     * @param quality
+     *            JPEG、WEBP的质量，0-100
+     */
+    public void put(String key, Bitmap value, BitmapFormat format, int quality) {
+        put(key, value, format, quality, time);
+    }
+
+    /**
+     * 按指定格式保存 bitmap 到 缓存中，格式记录在数据中，读取时不需要指定
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的 bitmap 数据
+     * @param format
+     *            保存格式
+     * @param quality
+     *            JPEG、WEBP的质量，0-100
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, Bitmap value, BitmapFormat format, int quality, int saveTime) {
+        byte[] data = BitmapUtils.bitmap2Bytes(value, format, quality);
+        if (data == null) {
+            return;
+        }
+        writeEntry(key, XCacheHeader.FLAG_BITMAP, data, XCacheUtils.expireAt(saveTime), false);
+    }
+
+    /**
+     * 读取 bitmap 数据
+     *
+     * @param key
+     * @return bitmap 数据
+     */
+    public Bitmap getBitmap(String key) {
+        return readEntry(key, new BitmapDecoder(mBitmapPool, 0, 0), true);
+    }
+
+    /**
+     * 按目标大小缩放读取 bitmap 数据，先解码宽高，再按2的幂缩小到不小于目标大小
+     * 开启 {@link Builder#bitmapPoolSize(int)} 时优先复用 {@link #recycleBitmap(Bitmap)} 放回的Bitmap
+     * {@link BitmapFormat#RAW} 格式不能缩放，按原大小读取
+     *
+     * @param key
+     * @param reqWidth  目标宽度，单位像素
+     * @param reqHeight 目标高度，单位像素
+     * @return bitmap 数据
+     */
+    public Bitmap getBitmap(String key, int reqWidth, int reqHeight) {
+        return readEntry(key, new BitmapDecoder(mBitmapPool, reqWidth, reqHeight), true);
+    }
+
+    /**
+     * 把不再显示的Bitmap放回复用池，之后的 {@link #getBitmap(String)} 解码时复用它的内存
+     * 放回后调用方不能再使用这个Bitmap；未开启 {@link Builder#bitmapPoolSize(int)} 时不做任何事
+     *
+     * @param bitmap 只有getBitmap返回的可修改的Bitmap才能复用
+     */
+    public void recycleBitmap(Bitmap bitmap) {
+        if (mBitmapPool != null) {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * 带 {@link XCacheHeader#FLAG_BITMAP} 的数据按记录的格式解码，旧版数据是PNG
+     * 数据在线程内复用的缓冲区中，解码时两次读取同一块内存：先读宽高，再按缩放比例解码
+     */
+    private static class BitmapDecoder implements EntryDecoder<Bitmap> {
+        private final XCacheBitmapPool pool;
+        private final int reqWidth;
+        private final int reqHeight;
+
+        /**
+         * @param pool      复用池，可以为null
+         * @param reqWidth  目标宽度，小于等于0时不缩放
+         * @param reqHeight 目标高度，小于等于0时不缩放
+         */
+        private BitmapDecoder(XCacheBitmapPool pool, int reqWidth, int reqHeight) {
+            this.pool = pool;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+        }
+
+        @Override
+        public Bitmap decode(int flags, long expireAt, byte[] data, int length) {
+            if (length == 0) {
+                return null;
+            }
+            if ((flags & XCacheHeader.FLAG_BITMAP) == 0) {
+                return BitmapUtils.decodeSampled(data, 0, length, reqWidth, reqHeight, pool);
+            }
+            BitmapFormat[] formats = BitmapFormat.values();
+            int format = data[0];
+            if (format < 0 || format >= formats.length) {
+                return null;
+            }
+            if (formats[format] == BitmapFormat.RAW) {
+                return BitmapUtils.decodeRaw(data, 1, length - 1, pool);
+            }
+            return BitmapUtils.decodeSampled(data, 1, length - 1, reqWidth, reqHeight, pool);
+        }
+    }
+    // ============= drawable 数据 读写 =============
+    /**
+     * 保存 drawable 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的drawable数据
+     */
+    public void put(String key, Drawable value) {
+        put(key, BitmapUtils.drawable2Bitmap(value));
+    }
+
+    /**
+     * 保存 drawable 到 缓存中
+     *
+     * @param key
+     *            保存的key
+     * @param value
+     *            保存的 drawable 数据
+     * @param saveTime
+     *            保存的时间，单位：秒
+     */
+    public void put(String key, Drawable value, int saveTime) {
+        put(key, BitmapUtils.drawable2Bitmap(value), saveTime);
+    }
+
+    /**
+     * 读取 Drawable 数据
+     *
+     * @param key
+     * @return Drawable 数据
+     */
+    public Drawable getDrawable(String key) {
+        return BitmapUtils.bitmap2Drawable(getBitmap(key));
+    }
+
+    /**
+     * 按目标大小缩放读取 Drawable 数据
+     *
+     * @param key
+     * @param reqWidth  目标宽度，单位像素
+     * @param reqHeight 目标高度，单位像素
+     * @return Drawable 数据
+     * @see #getBitmap(String, int, int)
+     */
+    public Drawable getDrawable(String key, int reqWidth, int reqHeight) {
+        return BitmapUtils.bitmap2Drawable(getBitmap(key, reqWidth, reqHeight));
+    }
+
+
+    /**
+     * Bitmap和Drawable的转换工具类
+     */
+    private static class BitmapUtils {
+        /**
+         * bitmap转化为字节，首字节是格式
+         * RAW：格式 宽(int) 高(int) Config名(UTF) 像素；其他：格式 编码后的数据
+         * 不能直接读取像素的bitmap（没有Config或8.0以上的HARDWARE）改用PNG
+         *
+         * @param bm
+         * @param format
+         * @param quality
+         * @return
+         */
+        private static byte[] bitmap2Bytes(Bitmap bm, BitmapFormat format, int quality) {
+            if (bm == null) {
+                return null;
+            }
+            if (format == BitmapFormat.RAW && canCopyPixels(bm)) {
+                byte[] config = bm.getConfig().name().getBytes(XCacheStringCodec.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 4 + 2 + config.length + bm.getByteCount());
+                buffer.put((byte) BitmapFormat.RAW.ordinal());
+                buffer.putInt(bm.getWidth());
+                buffer.putInt(bm.getHeight());
+                buffer.putShort((short) config.length);
+                buffer.put(config);
+                bm.copyPixelsToBuffer(buffer);
+                return buffer.array();
+            }
+            if (format == BitmapFormat.RAW) {
+                format = BitmapFormat.PNG;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(format.ordinal());
+            bm.compress(compressFormat(format), quality, baos);
+            return baos.toByteArray();
+        }
+
+        /**
+         * HARDWARE的像素在显存中，copyPixelsToBuffer会抛出IllegalStateException
+         *
+         * @param bm
+         * @return
+         */
+        private static boolean canCopyPixels(Bitmap bm) {
+            Bitmap.Config config = bm.getConfig();
+            if (config == null) {
+                return false;
+            }
+            return Build.VERSION.SDK_INT < Build.VERSION_CODES.O || config != Bitmap.Config.HARDWARE;
+        }
+
+        private static Bitmap.CompressFormat compressFormat(BitmapFormat format) {
+            switch (format) {
+                case JPEG:
+                    return Bitmap.CompressFormat.JPEG;
+                case WEBP:
+                    return Bitmap.CompressFormat.WEBP;
+                default:
+                    return Bitmap.CompressFormat.PNG;
+            }
+        }
+
+        /**
+         * 解码 {@link BitmapFormat#RAW} 格式，格式见 {@link #bitmap2Bytes(Bitmap, BitmapFormat, int)}
+         * 4.4及以上可以把复用池中内存足够的Bitmap重新设置宽高后直接拷贝像素
+         *
+         * @param b
+         * @param offset 格式字节之后的位置
+         * @param length 有效长度
+         * @param pool   复用池，可以为null
+         * @return
+         */
+        private static Bitmap decodeRaw(byte[] b, int offset, int length, XCacheBitmapPool pool) {
+            ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            byte[] configName = new byte[buffer.getShort() & 0xffff];
+            buffer.get(configName);
+            Bitmap.Config config = Bitmap.Config.valueOf(new String(configName, XCacheStringCodec.UTF_8));
+            Bitmap bitmap = pool != null ? pool.get(width, height, config, 1) : null;
+            if (bitmap != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                bitmap.reconfigure(width, height, config);
+            } else if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, config);
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        }
+
+        /**
+         * 解码编码后的图片，需要时先读宽高计算缩放比例，有复用池时通过inBitmap复用
+         *
+         * @param b
+         * @param offset
+         * @param length
+         * @param reqWidth  目标宽度，小于等于0时不缩放
+         * @param reqHeight 目标高度，小于等于0时不缩放
+         * @param pool      复用池，可以为null
+         * @return
+         */
+        private static Bitmap decodeSampled(byte[] b, int offset, int length, int reqWidth, int reqHeight,
+                                            XCacheBitmapPool pool) {
+            if (length <= 0) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if ((reqWidth > 0 && reqHeight > 0) || pool != null) {
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(b, offset, length, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+            }
+            if (pool != null) {
+                options.inMutable = true;
+                int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+                int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+                options.inBitmap = pool.get(width, height, Bitmap.Config.ARGB_8888, options.inSampleSize);
+                if (options.inBitmap != null) {
+                    try {
+                        return BitmapFactory.decodeByteArray(b, offset, length, options);
+                    } catch (IllegalArgumentException e) {
+                        //不能复用时正常解码
+                        options.inBitmap = null;
+                    }
+                }
+            }
+            return BitmapFactory.decodeByteArray(b, offset, length, options);
+        }
+
+        /**
+         * 计算缩放比例，取2的幂，缩放后的宽高都不小于目标大小
+         *
+         * @return 不需要缩放时返回1
+         */
+        private static int sampleSize(int width, int height, int reqWidth, int reqHeight) {
+            int sampleSize = 1;
+            if (reqWidth <= 0 || reqHeight <= 0) {
+                return sampleSize;
+            }
+            while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+                sampleSize *= 2;
+            }
+            return sampleSize;
+        }
+
+        /**
+         * bitmap获取
+         *
+         * @param drawable 参数
+         * @return
+         */
+        private static Bitmap drawable2Bitmap(Drawable drawable) {
+            if (drawable == null) {
+                return null;
+            }
+            // 取 drawable 的长宽
+            int w = drawable.getIntrinsicWidth();
+            int h = drawable.getIntrinsicHeight();
+            // 取 drawable 的颜色格式
+            Bitmap.Config config = drawable.getOpacity() != PixelFormat.OPAQUE ? Bitmap.Config.ARGB_8888
+                : Bitmap.Config.RGB_565;
+            // 建立对应 bitmap
+            Bitmap bitmap = Bitmap.createBitmap(w, h, config);
+            // 建立对应 bitmap 的画布
+            Canvas canvas = new Canvas(bitmap);
+            drawable.setBounds(0, 0, w, h);
+            // 把 drawable 内容画到画布中
+            drawable.draw(canvas);
+            return bitmap;
+        }
+
+        /**
+         * 获取 drawable
+         *
+         * @param bm 参数
+         * @return
+         */
+        private static Drawable bitmap2Drawable(Bitmap bm) {
+            if (bm == null) {
+                return null;
+            }
+            BitmapDrawable bd = new BitmapDrawable(bm);
+            bd.setTargetDensity(bm.getDensity());
+            return new BitmapDrawable(bm);
+        }
+    }
+}
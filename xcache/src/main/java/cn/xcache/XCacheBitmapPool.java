@@ -0,0 +1,114 @@
+package cn.xcache;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * @description 解码时通过 BitmapFactory.Options.inBitmap 复用的Bitmap池，按字节数限制大小，先放入的先淘汰
+ * 4.4及以上只要原Bitmap占用的内存足够即可复用；4.4以下要求宽高和Config完全一致，且不能缩放解码
+ */
+final class XCacheBitmapPool {
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+    private final long maxSize;
+    private long size;
+
+    /**
+     * @param maxSize 池的大小上限，单位字节
+     */
+    XCacheBitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 取出一个可以用来解码的Bitmap
+     *
+     * @param width        解码后的宽
+     * @param height       解码后的高
+     * @param config       解码后的Config
+     * @param inSampleSize 缩放比例
+     * @return 没有合适的Bitmap时返回null
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config, int inSampleSize) {
+        Iterator<Bitmap> iterator = bitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.isRecycled()) {
+                iterator.remove();
+                size -= byteCount(bitmap);
+                continue;
+            }
+            if (canReuse(bitmap, width, height, config, inSampleSize)) {
+                iterator.remove();
+                size -= byteCount(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 放入不再使用的Bitmap，不可修改的Bitmap不能复用，直接忽略
+     *
+     * @param bitmap
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int byteCount = byteCount(bitmap);
+        if (byteCount > maxSize / 2 || bitmaps.contains(bitmap)) {
+            return;
+        }
+        bitmaps.addLast(bitmap);
+        size += byteCount;
+        trimToSize(maxSize);
+    }
+
+    synchronized void clear() {
+        bitmaps.clear();
+        size = 0;
+    }
+
+    /**
+     * 淘汰最早放入的Bitmap直到不超过maxSize
+     *
+     * @param maxSize
+     */
+    synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && !bitmaps.isEmpty()) {
+            size -= byteCount(bitmaps.removeFirst());
+        }
+    }
+
+    long maxSize() {
+        return maxSize;
+    }
+
+    private static boolean canReuse(Bitmap bitmap, int width, int height, Bitmap.Config config, int inSampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount() >= (long) width * height * bytesPerPixel(config);
+        }
+        return bitmap.getWidth() == width && bitmap.getHeight() == height
+                && bitmap.getConfig() == config && inSampleSize == 1;
+    }
+
+    private static int byteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}